@@ -0,0 +1,129 @@
+package com.example.a19037138_a3;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the schema migrations from the base schema up to the current version,
+ * on an in-memory database holding data written by older versions.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseMigrationTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        DatabaseHelper.createBaseSchema(db);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void baseSchemaDataSurvivesEveryMigration() {
+        db.execSQL("INSERT INTO meals (id, name, type, date) VALUES (1, 'Omelette', 'Breakfast', '2030-01-07')");
+        db.execSQL("INSERT INTO ingredients (mealId, name, quantity, category) VALUES (1, 'Eggs', 3, 'Dairy')");
+        db.execSQL("INSERT INTO ingredients (mealId, name, quantity, category) VALUES (0, 'Milk', 1, 'Dairy')");
+        db.execSQL("INSERT INTO ingredients (mealId, name, quantity, category) VALUES (0, 'Milk', 2, 'Dairy')");
+
+        migrate(DatabaseHelper.BASE_SCHEMA_VERSION, DatabaseHelper.DATABASE_VERSION);
+
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM meals"));
+        assertEquals(3, queryInt("SELECT quantity FROM ingredients WHERE mealId = 1 AND name = 'Eggs'"));
+        // Manually added items were merged into one item without a meal
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM ingredients WHERE name = 'Milk'"));
+        assertEquals(3, queryInt("SELECT quantity FROM ingredients WHERE name = 'Milk' AND mealId IS NULL"));
+        // Rows written before the full-text index existed are indexed
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM ingredients_fts WHERE ingredients_fts MATCH 'Egg*'"));
+    }
+
+    @Test
+    public void everyTableExistsAfterTheMigrations() {
+        migrate(DatabaseHelper.BASE_SCHEMA_VERSION, DatabaseHelper.DATABASE_VERSION);
+
+        String[] tables = {"journal_operations", "journal_rows", "meal_history", "meal_history_ingredients",
+                "meal_history_months", "import_checkpoints", "recipes", "recipe_ingredients",
+                "recurrence_rules", "recurrence_ingredients", "recurrence_overrides"};
+        for (String table : tables) {
+            assertEquals(table, 1, queryInt("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '"
+                    + table + "'"));
+        }
+    }
+
+    @Test(expected = SQLiteConstraintException.class)
+    public void shoppingItemsStayUniqueByNameAndCategory() {
+        migrate(DatabaseHelper.BASE_SCHEMA_VERSION, DatabaseHelper.DATABASE_VERSION);
+
+        ContentValues values = new ContentValues();
+        values.putNull("mealId");
+        values.put("name", "Milk");
+        values.put("category", "Dairy");
+        values.put("quantity", 1);
+        db.insertOrThrow("ingredients", null, values);
+        db.insertOrThrow("ingredients", null, values);
+    }
+
+    @Test
+    public void archivedMealsSharingAMealIdKeepTheirOwnIngredients() {
+        migrate(DatabaseHelper.BASE_SCHEMA_VERSION, 12);
+        // Meal ID 5 was reused, so the history holds two different meals under it
+        db.execSQL("INSERT INTO meal_history (day, type, mealId, name) VALUES (20300101, 1, 5, 'Porridge')");
+        db.execSQL("INSERT INTO meal_history (day, type, mealId, name) VALUES (20300102, 3, 5, 'Curry')");
+        db.execSQL("INSERT INTO meal_history_ingredients (day, mealId, name, category, quantity) " +
+                "VALUES (20300101, 5, 'Oats', 'Pantry', 1)");
+        db.execSQL("INSERT INTO meal_history_ingredients (day, mealId, name, category, quantity) " +
+                "VALUES (20300102, 5, 'Rice', 'Pantry', 2)");
+
+        migrate(12, DatabaseHelper.DATABASE_VERSION);
+
+        assertEquals(2, queryInt("SELECT COUNT(DISTINCT historyId) FROM meal_history"));
+        try (Cursor cursor = db.rawQuery("SELECT h.name, i.name FROM meal_history h " +
+                "JOIN meal_history_ingredients i ON i.historyId = h.historyId ORDER BY h.day", null)) {
+            assertTrue(cursor.moveToNext());
+            assertEquals("Porridge", cursor.getString(0));
+            assertEquals("Oats", cursor.getString(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Curry", cursor.getString(0));
+            assertEquals("Rice", cursor.getString(1));
+            assertFalse(cursor.moveToNext());
+        }
+    }
+
+    /**
+     * Runs the migrations between two versions in one transaction, as SQLiteOpenHelper does.
+     */
+    private void migrate(int fromVersion, int toVersion) {
+        db.beginTransaction();
+        try {
+            DatabaseHelper.runMigrations(db, fromVersion, toVersion);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the single integer a query selects.
+     */
+    private int queryInt(String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.a19037138_a3;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that OperationJournal undoes and redoes shopping-list changes row by row, by primary key,
+ * against an in-memory database with the current schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OperationJournalTest {
+
+    private SQLiteDatabase db;
+    private OperationJournal journal;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        DatabaseHelper.createBaseSchema(db);
+        DatabaseHelper.runMigrations(db, DatabaseHelper.BASE_SCHEMA_VERSION, DatabaseHelper.DATABASE_VERSION);
+        journal = new OperationJournal();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void undoAndRedoWriteQuantitiesBackToTheSameRow() {
+        long rowId = insertIngredient(null, "Milk", "Dairy", 2);
+        long operationId = record("Milk", "Dairy", () -> setQuantity(rowId, 5));
+
+        inTransaction(() -> assertNotNull(journal.undo(db)));
+        assertEquals(2, quantityOf(rowId));
+
+        inTransaction(() -> assertNotNull(journal.redo(db)));
+        assertEquals(5, quantityOf(rowId));
+        assertTrue(operationId > 0);
+    }
+
+    @Test
+    public void undoOfAnAddDeletesTheRowAndRedoRestoresItsId() {
+        long[] rowId = new long[1];
+        record("Eggs", "Dairy", () -> rowId[0] = insertIngredient(null, "Eggs", "Dairy", 6));
+
+        inTransaction(() -> journal.undo(db));
+        assertEquals(-1, quantityOf(rowId[0]));
+
+        inTransaction(() -> journal.redo(db));
+        assertEquals(6, quantityOf(rowId[0]));
+    }
+
+    @Test
+    public void undoOfADeleteRestoresTheRowWithItsMeal() {
+        long mealId = insertMeal("Omelette");
+        long rowId = insertIngredient(mealId, "Eggs", "Dairy", 3);
+        record("Eggs", "Dairy", () -> db.delete("ingredients", "id = ?", new String[]{String.valueOf(rowId)}));
+
+        inTransaction(() -> journal.undo(db));
+
+        assertEquals(3, quantityOf(rowId));
+        try (Cursor cursor = db.rawQuery("SELECT mealId FROM ingredients WHERE id = ?",
+                new String[]{String.valueOf(rowId)})) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(mealId, cursor.getLong(0));
+        }
+    }
+
+    @Test
+    public void undoByIdIsRefusedWhileALaterChangeToTheItemIsApplied() {
+        long rowId = insertIngredient(null, "Milk", "Dairy", 1);
+        long first = record("Milk", "Dairy", () -> setQuantity(rowId, 2));
+        long second = record("Milk", "Dairy", () -> setQuantity(rowId, 3));
+
+        inTransaction(() -> assertNull(journal.undo(db, first)));
+        assertEquals(3, quantityOf(rowId));
+
+        inTransaction(() -> assertNotNull(journal.undo(db, second)));
+        inTransaction(() -> assertNotNull(journal.undo(db, first)));
+        assertEquals(1, quantityOf(rowId));
+    }
+
+    @Test
+    public void undoByIdLeavesOtherItemsAlone() {
+        long milk = insertIngredient(null, "Milk", "Dairy", 1);
+        long bread = insertIngredient(null, "Bread", "Bakery", 1);
+        long milkOperation = record("Milk", "Dairy", () -> setQuantity(milk, 4));
+        record("Bread", "Bakery", () -> setQuantity(bread, 2));
+
+        inTransaction(() -> assertNotNull(journal.undo(db, milkOperation)));
+
+        assertEquals(1, quantityOf(milk));
+        assertEquals(2, quantityOf(bread));
+    }
+
+    @Test
+    public void undoDoesNotDeleteARowReusedByAnotherItem() {
+        long[] rowId = new long[1];
+        record("Milk", "Dairy", () -> rowId[0] = insertIngredient(null, "Milk", "Dairy", 1));
+        db.delete("ingredients", "id = ?", new String[]{String.valueOf(rowId[0])});
+        ContentValues values = new ContentValues();
+        values.put("id", rowId[0]);
+        values.put("name", "Flour");
+        values.put("category", "Bakery");
+        values.put("quantity", 2);
+        db.insertOrThrow("ingredients", null, values);
+
+        inTransaction(() -> journal.undo(db));
+
+        assertEquals(2, quantityOf(rowId[0]));
+    }
+
+    @Test
+    public void operationsSurviveAReloadFromTheTables() {
+        long rowId = insertIngredient(null, "Milk", "Dairy", 2);
+        long operationId = record("Milk", "Dairy", () -> setQuantity(rowId, 7));
+
+        OperationJournal reloaded = new OperationJournal();
+        inTransaction(() -> assertNotNull(reloaded.undo(db, operationId)));
+
+        assertEquals(2, quantityOf(rowId));
+    }
+
+    @Test
+    public void changeThatLeavesTheItemAsItWasIsNotRecorded() {
+        long rowId = insertIngredient(null, "Milk", "Dairy", 2);
+
+        assertEquals(-1, record("Milk", "Dairy", () -> setQuantity(rowId, 2)));
+        inTransaction(() -> assertNull(journal.undo(db)));
+    }
+
+    /**
+     * Runs and records a change in its own transaction.
+     */
+    private long record(String name, String category, Runnable change) {
+        long[] operationId = new long[1];
+        inTransaction(() -> operationId[0] = journal.record(db, name, category, change));
+        return operationId[0];
+    }
+
+    /**
+     * Runs work in a transaction that commits unless it throws.
+     */
+    private void inTransaction(Runnable work) {
+        db.beginTransaction();
+        try {
+            work.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts a meal and returns its ID.
+     */
+    private long insertMeal(String name) {
+        ContentValues values = new ContentValues();
+        values.put("name", name);
+        values.put("type", "Breakfast");
+        values.put("date", "2030-01-07");
+        return db.insertOrThrow("meals", null, values);
+    }
+
+    /**
+     * Inserts an ingredient row and returns its ID.
+     */
+    private long insertIngredient(Long mealId, String name, String category, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put("mealId", mealId);
+        values.put("name", name);
+        values.put("category", category);
+        values.put("quantity", quantity);
+        return db.insertOrThrow("ingredients", null, values);
+    }
+
+    /**
+     * Sets the quantity of an ingredient row.
+     */
+    private void setQuantity(long rowId, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put("quantity", quantity);
+        db.update("ingredients", values, "id = ?", new String[]{String.valueOf(rowId)});
+    }
+
+    /**
+     * Returns the quantity of an ingredient row, or -1 if there is no such row.
+     */
+    private int quantityOf(long rowId) {
+        try (Cursor cursor = db.rawQuery("SELECT quantity FROM ingredients WHERE id = ?",
+                new String[]{String.valueOf(rowId)})) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.a19037138_a3;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that RecordCache never keeps a read that a write overtook, using its generation counters.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecordCacheTest {
+
+    private static final String DATE = "2030-01-07";
+
+    @Test
+    public void readIsCachedWhenNothingWasWritten() {
+        RecordCache cache = new RecordCache();
+        int generation = cache.getMealGeneration();
+        cache.putMealsInRange(DATE, DATE, day(new Meal(1, "Porridge", "Breakfast", DATE)), generation);
+
+        Map<String, Map<String, List<Meal>>> cached = cache.getMealsInRange(DATE, DATE);
+        assertNotNull(cached);
+        assertEquals(1, cached.get(DATE).get("Breakfast").size());
+    }
+
+    @Test
+    public void readOvertakenByAnAddIsDropped() {
+        RecordCache cache = new RecordCache();
+        int generation = cache.getMealGeneration();
+        cache.addMeal(new Meal(2, "Soup", "Lunch", DATE)); // Written after the read started
+        cache.putMealsInRange(DATE, DATE, Collections.emptyMap(), generation);
+
+        assertNull(cache.getMealsInRange(DATE, DATE));
+    }
+
+    @Test
+    public void readOvertakenByARemovalIsDropped() {
+        RecordCache cache = new RecordCache();
+        int generation = cache.getMealGeneration();
+        cache.removeMeal(DATE, 1);
+        cache.putMealsInRange(DATE, DATE, day(new Meal(1, "Porridge", "Breakfast", DATE)), generation);
+
+        assertNull(cache.getMealsInRange(DATE, DATE));
+    }
+
+    @Test
+    public void addAndRemoveWriteThroughToCachedDays() {
+        RecordCache cache = new RecordCache();
+        cache.putMealsInRange(DATE, DATE, Collections.emptyMap(), cache.getMealGeneration());
+
+        cache.addMeal(new Meal(3, "Pasta", "Dinner", DATE));
+        assertEquals(1, cache.getMealsInRange(DATE, DATE).get(DATE).get("Dinner").size());
+
+        cache.removeMeal(DATE, 3);
+        assertTrue(cache.getMealsInRange(DATE, DATE).isEmpty());
+    }
+
+    @Test
+    public void clearDropsDaysAndOutdatesReadsInFlight() {
+        RecordCache cache = new RecordCache();
+        cache.putMealsInRange(DATE, DATE, Collections.emptyMap(), cache.getMealGeneration());
+        int generation = cache.getMealGeneration();
+        cache.clearMeals();
+
+        assertNull(cache.getMealsInRange(DATE, DATE));
+        cache.putMealsInRange(DATE, DATE, Collections.emptyMap(), generation);
+        assertNull(cache.getMealsInRange(DATE, DATE));
+    }
+
+    @Test
+    public void ingredientReadOvertakenByAWriteIsDropped() {
+        RecordCache cache = new RecordCache();
+        int generation = cache.getIngredientGeneration();
+        cache.writeIngredient("Milk", "Dairy", new Ingredient(1, "Milk", "Dairy", 3));
+        cache.putIngredient(new Ingredient(1, "Milk", "Dairy", 1), generation);
+
+        assertEquals(3, cache.getIngredient("Milk", "Dairy").getQuantity());
+    }
+
+    @Test
+    public void ingredientListOvertakenByAClearIsDropped() {
+        RecordCache cache = new RecordCache();
+        int generation = cache.getIngredientGeneration();
+        cache.clearIngredients();
+        List<Ingredient> list = new ArrayList<>();
+        list.add(new Ingredient(1, "Milk", "Dairy", 1));
+        cache.putIngredients(null, DatabaseHelper.SORT_BY_NAME, list, generation);
+
+        assertNull(cache.getIngredients(null, DatabaseHelper.SORT_BY_NAME));
+        assertNull(cache.getIngredient("Milk", "Dairy"));
+    }
+
+    @Test
+    public void writeDropsListsHoldingTheItem() {
+        RecordCache cache = new RecordCache();
+        List<Ingredient> list = new ArrayList<>();
+        list.add(new Ingredient(1, "Milk", "Dairy", 1));
+        cache.putIngredients(null, DatabaseHelper.SORT_BY_NAME, list, cache.getIngredientGeneration());
+        cache.putIngredients("Dairy", DatabaseHelper.SORT_BY_NAME, list, cache.getIngredientGeneration());
+
+        cache.writeIngredient("Milk", "Dairy", null);
+
+        assertNull(cache.getIngredients(null, DatabaseHelper.SORT_BY_NAME));
+        assertNull(cache.getIngredients("Dairy", DatabaseHelper.SORT_BY_NAME));
+        assertNull(cache.getIngredient("Milk", "Dairy"));
+    }
+
+    /**
+     * Groups meals of one day by type, as the database returns them.
+     */
+    private static Map<String, Map<String, List<Meal>>> day(Meal... meals) {
+        Map<String, Map<String, List<Meal>>> mealsByDate = new LinkedHashMap<>();
+        for (Meal meal : meals) {
+            Map<String, List<Meal>> mealsByType = mealsByDate.get(meal.getDate());
+            if (mealsByType == null) {
+                mealsByType = new LinkedHashMap<>();
+                mealsByDate.put(meal.getDate(), mealsByType);
+            }
+            List<Meal> ofType = mealsByType.get(meal.getType());
+            if (ofType == null) {
+                ofType = new ArrayList<>();
+                mealsByType.put(meal.getType(), ofType);
+            }
+            ofType.add(meal);
+        }
+        return mealsByDate;
+    }
+}
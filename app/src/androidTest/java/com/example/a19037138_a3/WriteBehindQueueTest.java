@@ -0,0 +1,135 @@
+package com.example.a19037138_a3;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how WriteBehindQueue folds successive changes to one item before they are written,
+ * and which changes share an undo token.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WriteBehindQueueTest {
+
+    @Test
+    public void successiveAddsAreSummed() {
+        List<WriteBehindQueue.Change> changes = new ArrayList<>();
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 2);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 3);
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), WriteBehindQueue.CHANGE_DELTA, 5);
+    }
+
+    @Test
+    public void successiveRemovalsAreSummed() {
+        List<WriteBehindQueue.Change> changes = new ArrayList<>();
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, -1);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, -4);
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), WriteBehindQueue.CHANGE_DELTA, -5);
+    }
+
+    @Test
+    public void removalAfterAddIsSummed() {
+        List<WriteBehindQueue.Change> changes = new ArrayList<>();
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 4);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, -1);
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), WriteBehindQueue.CHANGE_DELTA, 3);
+    }
+
+    @Test
+    public void changesThatCancelOutLeaveNothingToWrite() {
+        List<WriteBehindQueue.Change> changes = new ArrayList<>();
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 2);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, -2);
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void addAfterRemovalIsNotSummed() {
+        // Removing 5 from an item holding 2 stops at zero, so adding 5 back must not cancel it out
+        List<WriteBehindQueue.Change> changes = new ArrayList<>();
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, -5);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 5);
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), WriteBehindQueue.CHANGE_DELTA, -5);
+        assertChange(changes.get(1), WriteBehindQueue.CHANGE_DELTA, 5);
+    }
+
+    @Test
+    public void deleteClearsEarlierChanges() {
+        List<WriteBehindQueue.Change> changes = new ArrayList<>();
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, -3);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 7);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELETE, 0);
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), WriteBehindQueue.CHANGE_DELETE, 0);
+    }
+
+    @Test
+    public void addAfterDeleteIsKeptSeparate() {
+        List<WriteBehindQueue.Change> changes = new ArrayList<>();
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELETE, 0);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 2);
+        WriteBehindQueue.merge(changes, WriteBehindQueue.CHANGE_DELTA, 1);
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), WriteBehindQueue.CHANGE_DELETE, 0);
+        assertChange(changes.get(1), WriteBehindQueue.CHANGE_DELTA, 3);
+    }
+
+    @Test
+    public void eachRemovalAndDeletionGetsItsOwnToken() {
+        WriteBehindQueue queue = unwrittenQueue();
+        WriteBehindQueue.UndoToken first = queue.remove("Milk", "Dairy", 1, null);
+        WriteBehindQueue.UndoToken second = queue.remove("Milk", "Dairy", 1, null);
+        WriteBehindQueue.UndoToken deletion = queue.delete("Milk", "Dairy", null);
+
+        assertNotSame(first, second);
+        assertNotSame(second, deletion);
+    }
+
+    @Test
+    public void additionsShareATokenUntilARemoval() {
+        WriteBehindQueue queue = unwrittenQueue();
+        WriteBehindQueue.UndoToken firstAdd = queue.add("Milk", "Dairy", 1, null);
+        WriteBehindQueue.UndoToken secondAdd = queue.add("Milk", "Dairy", 2, null);
+        WriteBehindQueue.UndoToken removal = queue.remove("Milk", "Dairy", 1, null);
+        WriteBehindQueue.UndoToken laterAdd = queue.add("Milk", "Dairy", 1, null);
+
+        assertSame(firstAdd, secondAdd);
+        assertNotSame(secondAdd, removal);
+        assertNotSame(removal, laterAdd);
+    }
+
+    /**
+     * Returns a queue whose flushes are never written, for checking how changes are grouped.
+     */
+    private static WriteBehindQueue unwrittenQueue() {
+        return new WriteBehindQueue(null, command -> { }, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Asserts the kind and quantity of a merged change.
+     */
+    private static void assertChange(WriteBehindQueue.Change change, int kind, int quantity) {
+        assertEquals(kind, change.kind);
+        assertEquals(quantity, change.quantity);
+    }
+}
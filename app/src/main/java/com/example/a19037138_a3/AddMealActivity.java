@@ -3,36 +3,45 @@ package com.example.a19037138_a3;
 import android.app.DatePickerDialog;
 import android.content.Intent;
 import android.os.Bundle;
-import android.text.InputType;
+import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
-import android.widget.LinearLayout;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Locale;
 
 /**
  * Activity for adding a new meal.
  * Users can input the meal's name, type, date, and ingredients.
+ * Ingredient rows are edited in a RecyclerView whose adapter keeps what was entered.
  */
 public class AddMealActivity extends AppCompatActivity {
 
+    // Weeks a repeating meal lasts for each repeat_until_array position; 0 repeats until it is stopped
+    private static final int[] REPEAT_WEEKS = {0, 1, 2, 4, 12};
+
     private EditText mealNameEditText;
-    private Spinner mealTypeSpinner;
+    private Spinner mealTypeSpinner, repeatSpinner, repeatUntilSpinner;
     private TextView selectedDateTextView;
-    private Button addMealButton, addIngredientButton;
-    private LinearLayout ingredientContainer;
+    private Button addMealButton, addIngredientButton, planRecipesButton;
+    private RecyclerView ingredientList;
+    private IngredientEditorAdapter ingredientAdapter;
 
     private final Calendar selectedDateCalendar = Calendar.getInstance();
     private final ArrayList<Ingredient> ingredientsList = new ArrayList<>();
-    private DatabaseHelper db;
+    private MealRepository repository;
 
     /**
      * Initializes the activity and sets up the UI components and listeners.
@@ -42,7 +51,8 @@ public class AddMealActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_add_meal);
 
-        db = DatabaseHelper.getInstance(this);
+        DatabaseHelper.acquire(this);
+        repository = MealRepository.getInstance(this);
         initializeUI();
         setListeners();
     }
@@ -53,10 +63,22 @@ public class AddMealActivity extends AppCompatActivity {
     private void initializeUI() {
         mealNameEditText = findViewById(R.id.meal_name);
         mealTypeSpinner = findViewById(R.id.meal_type_spinner);
+        repeatSpinner = findViewById(R.id.repeat_spinner);
+        repeatUntilSpinner = findViewById(R.id.repeat_until_spinner);
         selectedDateTextView = findViewById(R.id.selected_date);
         addMealButton = findViewById(R.id.add_meal_button);
         addIngredientButton = findViewById(R.id.add_ingredient_button);
-        ingredientContainer = findViewById(R.id.ingredient_container);
+        planRecipesButton = findViewById(R.id.plan_recipes_button);
+        ingredientList = findViewById(R.id.ingredient_list);
+
+        // One category adapter serves every ingredient row's spinner
+        ArrayAdapter<CharSequence> categoryAdapter = ArrayAdapter.createFromResource(
+                this, R.array.category_no_all, android.R.layout.simple_spinner_item);
+        categoryAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        ingredientAdapter = new IngredientEditorAdapter(categoryAdapter,
+                draft -> Toast.makeText(this, "Ingredient removed", Toast.LENGTH_SHORT).show());
+        ingredientList.setLayoutManager(new LinearLayoutManager(this));
+        ingredientList.setAdapter(ingredientAdapter);
     }
 
     /**
@@ -65,14 +87,26 @@ public class AddMealActivity extends AppCompatActivity {
     private void setListeners() {
         setBackButtonListener();
         selectedDateTextView.setOnClickListener(v -> showDatePickerDialog());
+        repeatSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                repeatUntilSpinner.setVisibility(position == 0 ? View.GONE : View.VISIBLE);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                repeatUntilSpinner.setVisibility(View.GONE);
+            }
+        });
         addIngredientButton.setOnClickListener(v -> {
-            if (validateLastIngredientField()) {
-                addIngredientField();
+            if (ingredientAdapter.isLastRowComplete()) {
+                ingredientList.scrollToPosition(ingredientAdapter.addRow());
             } else {
                 Toast.makeText(this, "Please fill in the last ingredient first", Toast.LENGTH_SHORT).show();
             }
         });
         addMealButton.setOnClickListener(v -> addMeal());
+        planRecipesButton.setOnClickListener(v -> showRecipePicker());
     }
 
     /**
@@ -118,138 +152,183 @@ public class AddMealActivity extends AppCompatActivity {
             return;
         }
 
-        long mealId = db.addMeal(mealName, mealType, formattedDate, ingredientsList);
-        if (mealId != -1) {
-            Toast.makeText(this, "Meal added successfully", Toast.LENGTH_SHORT).show();
-            startActivity(new Intent(this, MainActivity.class));
-            finish();
-        } else {
-            Toast.makeText(this, "Error adding meal", Toast.LENGTH_SHORT).show();
+        int daysOfWeek = getRepeatDays();
+        if (daysOfWeek != 0) {
+            addRecurringMeal(mealName, mealType, formattedDate, getRepeatEndDate(), daysOfWeek);
+            return;
         }
-    }
-
-    /**
-     * Validates that the selected date is not in the past.
-     *
-     * @return True if the date is valid, false otherwise.
-     */
-    private boolean isDateValid() {
-        Calendar today = Calendar.getInstance();
-        today.set(Calendar.HOUR_OF_DAY, 0);
-        today.set(Calendar.MINUTE, 0);
-        today.set(Calendar.SECOND, 0);
-        today.set(Calendar.MILLISECOND, 0);
 
-        return !selectedDateCalendar.before(today);
+        // Save in the background; block repeat taps until the result arrives
+        addMealButton.setEnabled(false);
+        repository.addMeal(mealName, mealType, formattedDate, new ArrayList<>(ingredientsList), mealId -> {
+            if (isDestroyed()) {
+                return;  // The meal is saved even if the user already left the screen
+            }
+            if (mealId != -1) {
+                Toast.makeText(this, "Meal added successfully", Toast.LENGTH_SHORT).show();
+                startActivity(new Intent(this, MainActivity.class));
+                finish();
+            } else {
+                addMealButton.setEnabled(true);
+                Toast.makeText(this, "Error adding meal", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Collects ingredients from the UI.
+     * Returns the days of the week the meal repeats on, as a DatabaseHelper day mask,
+     * or 0 if it does not repeat.
      */
-    private void collectIngredients() {
-        ingredientsList.clear();
-        for (int i = 0; i < ingredientContainer.getChildCount(); i++) {
-            LinearLayout ingredientLayout = (LinearLayout) ingredientContainer.getChildAt(i);
-            EditText nameField = ingredientLayout.findViewById(R.id.ingredient_name);
-            EditText quantityField = ingredientLayout.findViewById(R.id.ingredient_quantity);
-            Spinner categorySpinner = ingredientLayout.findViewById(R.id.ingredient_category);
-
-            String name = nameField.getText().toString().trim();
-            int quantity = quantityField.getText().toString().isEmpty() ?
-                    1 : Integer.parseInt(quantityField.getText().toString());
-            String category = categorySpinner.getSelectedItem().toString();
-
-            if (!name.isEmpty()) {
-                ingredientsList.add(new Ingredient(0, name, category, quantity));
-            } else {
-                Toast.makeText(this, "Skipping ingredient with empty name", Toast.LENGTH_SHORT).show();
-            }
+    private int getRepeatDays() {
+        switch (repeatSpinner.getSelectedItemPosition()) {
+            case 1:
+                return DatabaseHelper.EVERY_DAY;
+            case 2:
+                return DatabaseHelper.WEEKDAYS;
+            case 3:
+                return 1 << (selectedDateCalendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY);
+            default:
+                return 0;
         }
     }
 
     /**
-     * Adds a new ingredient input field dynamically.
+     * Returns the last date a repeating meal occurs on, counted in whole weeks from the selected date,
+     * or null if it repeats until it is stopped.
      */
-    private void addIngredientField() {
-        LinearLayout ingredientLayout = new LinearLayout(this);
-        ingredientLayout.setOrientation(LinearLayout.VERTICAL);
-        ingredientLayout.addView(createIngredientRow());
-        ingredientLayout.addView(createCategoryRow(ingredientLayout));
-        ingredientContainer.addView(ingredientLayout);
+    private String getRepeatEndDate() {
+        int weeks = REPEAT_WEEKS[repeatUntilSpinner.getSelectedItemPosition()];
+        if (weeks == 0) {
+            return null;
+        }
+        Calendar endDate = (Calendar) selectedDateCalendar.clone();
+        endDate.add(Calendar.DAY_OF_MONTH, weeks * 7 - 1);
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(endDate.getTime());
     }
 
     /**
-     * Creates the first row for ingredient input.
+     * Saves the meal once as a recurring rule running from the selected date to the end date, if any.
      */
-    private LinearLayout createIngredientRow() {
-        LinearLayout firstRow = new LinearLayout(this);
-        firstRow.setOrientation(LinearLayout.HORIZONTAL);
-
-        EditText nameField = new EditText(this);
-        nameField.setHint("Ingredient Name");
-        nameField.setInputType(InputType.TYPE_CLASS_TEXT);
-        nameField.setLayoutParams(new LinearLayout.LayoutParams(0,
-                LinearLayout.LayoutParams.WRAP_CONTENT, 1f));
-
-        EditText quantityField = new EditText(this);
-        quantityField.setHint("Quantity");
-        quantityField.setInputType(InputType.TYPE_CLASS_NUMBER);
-        quantityField.setLayoutParams(new LinearLayout.LayoutParams(0,
-                LinearLayout.LayoutParams.WRAP_CONTENT, 1f));
-
-        firstRow.addView(nameField);
-        firstRow.addView(quantityField);
-
-        return firstRow;
+    private void addRecurringMeal(String mealName, String mealType, String startDate, String endDate,
+                                  int daysOfWeek) {
+        addMealButton.setEnabled(false);
+        repository.addRecurringMeal(mealName, mealType, startDate, endDate, daysOfWeek,
+                new ArrayList<>(ingredientsList), ruleId -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (ruleId != -1) {
+                Toast.makeText(this, R.string.recurring_meal_added, Toast.LENGTH_SHORT).show();
+                startActivity(new Intent(this, MainActivity.class));
+                finish();
+            } else {
+                addMealButton.setEnabled(true);
+                Toast.makeText(this, "Error adding meal", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Creates the second row with a category spinner and delete button.
+     * Lets the user pick saved recipes to plan on the selected date.
      */
-    private LinearLayout createCategoryRow(LinearLayout ingredientLayout) {
-        LinearLayout secondRow = new LinearLayout(this);
-        secondRow.setOrientation(LinearLayout.HORIZONTAL);
+    private void showRecipePicker() {
+        if (selectedDateTextView.getText().toString().trim().isEmpty() || !isDateValid()) {
+            Toast.makeText(this, "Please select a valid date", Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-        Spinner categorySpinner = new Spinner(this);
-        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(
-                this, R.array.category_no_all, android.R.layout.simple_spinner_item);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        categorySpinner.setAdapter(adapter);
+        repository.getRecipes(recipes -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (recipes.isEmpty()) {
+                Toast.makeText(this, R.string.no_recipes, Toast.LENGTH_LONG).show();
+                return;
+            }
 
-        ImageButton deleteButton = new ImageButton(this);
-        deleteButton.setImageResource(android.R.drawable.ic_delete);
-        deleteButton.setBackground(null);
-        deleteButton.setOnClickListener(v -> removeIngredient(ingredientLayout));
+            CharSequence[] names = new CharSequence[recipes.size()];
+            for (int i = 0; i < names.length; i++) {
+                Recipe recipe = recipes.get(i);
+                names[i] = recipe.getName() + " (" + recipe.getIngredientCount() + ")";
+            }
+            boolean[] checked = new boolean[names.length];
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.choose_recipes)
+                    .setMultiChoiceItems(names, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                    .setPositiveButton(R.string.plan, (dialog, which) -> {
+                        List<Long> recipeIds = new ArrayList<>();
+                        for (int i = 0; i < checked.length; i++) {
+                            if (checked[i]) {
+                                recipeIds.add(recipes.get(i).getId());
+                            }
+                        }
+                        planRecipes(recipeIds);
+                    })
+                    .setNegativeButton(R.string.cancel, null)
+                    .show();
+        });
+    }
 
-        secondRow.addView(categorySpinner);
-        secondRow.addView(deleteButton);
+    /**
+     * Plans the chosen recipes on the selected date, as the selected meal type if one is chosen.
+     *
+     * @param recipeIds The recipes to plan.
+     */
+    private void planRecipes(List<Long> recipeIds) {
+        if (recipeIds.isEmpty()) {
+            return;
+        }
+        String mealType = mealTypeSpinner.getSelectedItem().toString();
+        String type = mealType.equals("Select Meal Time") ? null : mealType;  // Keep each recipe's own type
+        String formattedDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault())
+                .format(selectedDateCalendar.getTime());
 
-        return secondRow;
+        planRecipesButton.setEnabled(false);
+        repository.scheduleRecipes(recipeIds, formattedDate, type, planned -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (planned != -1) {
+                Toast.makeText(this, getString(R.string.recipes_planned, planned), Toast.LENGTH_SHORT).show();
+                startActivity(new Intent(this, MainActivity.class));
+                finish();
+            } else {
+                planRecipesButton.setEnabled(true);
+                Toast.makeText(this, R.string.recipes_plan_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
-     * Removes an ingredient field from the layout.
+     * Validates that the selected date is not in the past.
+     *
+     * @return True if the date is valid, false otherwise.
      */
-    private void removeIngredient(LinearLayout ingredientLayout) {
-        int index = ingredientContainer.indexOfChild(ingredientLayout);
-        ingredientContainer.removeView(ingredientLayout);
-        if (index != -1) ingredientsList.remove(index);
-        Toast.makeText(this, "Ingredient removed", Toast.LENGTH_SHORT).show();
+    private boolean isDateValid() {
+        Calendar today = Calendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, 0);
+        today.set(Calendar.MINUTE, 0);
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+
+        return !selectedDateCalendar.before(today);
     }
 
     /**
-     * Validates if the last ingredient field is complete.
+     * Collects ingredients from the editor's drafts.
      */
-    private boolean validateLastIngredientField() {
-        if (ingredientContainer.getChildCount() == 0) return true;
-
-        LinearLayout lastLayout = (LinearLayout) ingredientContainer.getChildAt(
-                ingredientContainer.getChildCount() - 1);
-        EditText nameField = lastLayout.findViewById(R.id.ingredient_name);
-        EditText quantityField = lastLayout.findViewById(R.id.ingredient_quantity);
+    private void collectIngredients() {
+        ingredientsList.clear();
+        for (IngredientEditorAdapter.Draft draft : ingredientAdapter.getDrafts()) {
+            String name = draft.getName();
+            int quantity = draft.getQuantity().isEmpty() ? 1 : Integer.parseInt(draft.getQuantity());
 
-        return !nameField.getText().toString().isEmpty() &&
-                !quantityField.getText().toString().isEmpty();
+            if (!name.isEmpty()) {
+                ingredientsList.add(new Ingredient(0, name, draft.getCategory(), quantity));
+            } else {
+                Toast.makeText(this, "Skipping ingredient with empty name", Toast.LENGTH_SHORT).show();
+            }
+        }
     }
 
     /**
@@ -273,11 +352,11 @@ public class AddMealActivity extends AppCompatActivity {
     }
 
     /**
-     * Closes the database when the activity is destroyed.
+     * Returns the shared database when the activity is destroyed.
      */
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        DatabaseHelper.closeDatabase();
+        DatabaseHelper.release();
     }
 }
@@ -3,13 +3,24 @@ package com.example.a19037138_a3;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * DatabaseHelper class for managing the meal planner database.
@@ -19,128 +30,656 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     // --- Constants and Singleton Setup ---
     private static final String DATABASE_NAME = "mealPlanner.db";
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 13;
+
+    // Oldest schema version that can be upgraded in place by MIGRATIONS
+    static final int BASE_SCHEMA_VERSION = 2;
+
+    /**
+     * A single schema step that upgrades the database by exactly one version.
+     */
+    private interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Ordered schema migrations. The entry at index i upgrades
+     * version (BASE_SCHEMA_VERSION + i) to version (BASE_SCHEMA_VERSION + i + 1).
+     * New schema changes must be appended here and DATABASE_VERSION bumped; existing entries never change.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // 2 -> 3: Index the week view lookups by date and meal type
+            db -> db.execSQL("CREATE INDEX IF NOT EXISTS idx_meals_date_type ON meals(date, type)"),
+
+            // 3 -> 4: Index ingredient lookups by meal and by shopping-list identity
+            db -> {
+                db.execSQL("CREATE INDEX IF NOT EXISTS idx_ingredients_meal_id ON ingredients(mealId)");
+                db.execSQL("CREATE INDEX IF NOT EXISTS idx_ingredients_name_category ON ingredients(name, category)");
+            },
+
+            // 4 -> 5: Make manually added shopping-list items (no meal) unique by name and category
+            db -> {
+                db.execSQL("UPDATE ingredients SET mealId = NULL WHERE mealId = 0");
+                db.execSQL("UPDATE ingredients SET quantity = (SELECT SUM(i.quantity) FROM ingredients i " +
+                        "WHERE i.mealId IS NULL AND i.name = ingredients.name AND i.category = ingredients.category) " +
+                        "WHERE id IN (SELECT MIN(id) FROM ingredients WHERE mealId IS NULL GROUP BY name, category)");
+                db.execSQL("DELETE FROM ingredients WHERE mealId IS NULL AND id NOT IN " +
+                        "(SELECT MIN(id) FROM ingredients WHERE mealId IS NULL GROUP BY name, category)");
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS idx_ingredients_shopping_item " +
+                        "ON ingredients(name, category) WHERE mealId IS NULL");
+            },
+
+            // 5 -> 6: Full-text index over ingredient names, kept in sync by triggers
+            db -> {
+                db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS ingredients_fts USING fts4(content=\"ingredients\", name)");
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS ingredients_fts_after_insert AFTER INSERT ON ingredients BEGIN " +
+                        "INSERT INTO ingredients_fts(docid, name) VALUES (new.id, new.name); END");
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS ingredients_fts_before_delete BEFORE DELETE ON ingredients BEGIN " +
+                        "DELETE FROM ingredients_fts WHERE docid = old.id; END");
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS ingredients_fts_before_update BEFORE UPDATE OF name ON ingredients BEGIN " +
+                        "DELETE FROM ingredients_fts WHERE docid = old.id; END");
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS ingredients_fts_after_update AFTER UPDATE OF name ON ingredients BEGIN " +
+                        "INSERT INTO ingredients_fts(docid, name) VALUES (new.id, new.name); END");
+                db.execSQL("INSERT INTO ingredients_fts(ingredients_fts) VALUES ('rebuild')");
+            },
+
+            // 6 -> 7: Covering index that groups the shopping list into category sections in index order
+            db -> db.execSQL("CREATE INDEX IF NOT EXISTS idx_ingredients_category_name " +
+                    "ON ingredients(category, name, quantity)"),
+
+            // 7 -> 8: Persisted journal of shopping-list changes for undo and redo
+            db -> {
+                db.execSQL("CREATE TABLE IF NOT EXISTS journal_operations (id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "name TEXT NOT NULL, category TEXT NOT NULL, undone INTEGER NOT NULL DEFAULT 0)");
+                db.execSQL("CREATE TABLE IF NOT EXISTS journal_rows (operationId INTEGER NOT NULL, " +
+                        "rowId INTEGER NOT NULL, mealId INTEGER, quantityBefore INTEGER, quantityAfter INTEGER)");
+                db.execSQL("CREATE INDEX IF NOT EXISTS idx_journal_rows_operation ON journal_rows(operationId)");
+            },
+
+            // 8 -> 9: History of past meals, clustered by yyyyMMdd day with integer meal types,
+            // plus a directory of the months it holds
+            db -> {
+                db.execSQL("CREATE TABLE IF NOT EXISTS meal_history (day INTEGER NOT NULL, type INTEGER NOT NULL, " +
+                        "mealId INTEGER NOT NULL, name TEXT, PRIMARY KEY (day, type, mealId)) WITHOUT ROWID");
+                db.execSQL("CREATE TABLE IF NOT EXISTS meal_history_ingredients (day INTEGER NOT NULL, " +
+                        "mealId INTEGER NOT NULL, name TEXT, category TEXT, quantity INTEGER)");
+                db.execSQL("CREATE INDEX IF NOT EXISTS idx_meal_history_ingredients_meal " +
+                        "ON meal_history_ingredients(day, mealId)");
+                db.execSQL("CREATE TABLE IF NOT EXISTS meal_history_months (month INTEGER PRIMARY KEY, " +
+                        "meals INTEGER NOT NULL)");
+            },
+
+            // 9 -> 10: Resume points of interrupted bulk imports
+            db -> db.execSQL("CREATE TABLE IF NOT EXISTS import_checkpoints (source TEXT PRIMARY KEY, " +
+                    "records INTEGER NOT NULL)"),
+
+            // 10 -> 11: Recipe templates that can be copied onto a date
+            db -> {
+                db.execSQL("CREATE TABLE IF NOT EXISTS recipes (id INTEGER PRIMARY KEY, name TEXT NOT NULL, type TEXT)");
+                db.execSQL("CREATE TABLE IF NOT EXISTS recipe_ingredients (recipeId INTEGER NOT NULL, " +
+                        "name TEXT, category TEXT, quantity INTEGER)");
+                db.execSQL("CREATE INDEX IF NOT EXISTS idx_recipe_ingredients_recipe ON recipe_ingredients(recipeId)");
+            },
+
+            // 11 -> 12: Recurring meals stored once as rules, with per-date overrides
+            db -> {
+                db.execSQL("CREATE TABLE IF NOT EXISTS recurrence_rules (id INTEGER PRIMARY KEY, name TEXT NOT NULL, " +
+                        "type TEXT NOT NULL, startDate TEXT NOT NULL, endDate TEXT, daysOfWeek INTEGER NOT NULL)");
+                db.execSQL("CREATE TABLE IF NOT EXISTS recurrence_ingredients (ruleId INTEGER NOT NULL, " +
+                        "name TEXT, category TEXT, quantity INTEGER)");
+                db.execSQL("CREATE INDEX IF NOT EXISTS idx_recurrence_ingredients_rule ON recurrence_ingredients(ruleId)");
+                db.execSQL("CREATE TABLE IF NOT EXISTS recurrence_overrides (ruleId INTEGER NOT NULL, " +
+                        "date TEXT NOT NULL, mealId INTEGER, PRIMARY KEY (ruleId, date)) WITHOUT ROWID");
+            },
+
+            // 12 -> 13: Key the meal history by its own id instead of the reusable live meal id
+            db -> {
+                db.execSQL("CREATE TEMP TABLE history_ids (historyId INTEGER PRIMARY KEY, day INTEGER, " +
+                        "type INTEGER, mealId INTEGER, name TEXT)");
+                db.execSQL("INSERT INTO history_ids (day, type, mealId, name) " +
+                        "SELECT day, type, mealId, name FROM meal_history ORDER BY day, type, mealId");
+                db.execSQL("DROP TABLE meal_history");
+                db.execSQL("CREATE TABLE meal_history (historyId INTEGER PRIMARY KEY, day INTEGER NOT NULL, " +
+                        "type INTEGER NOT NULL, name TEXT)");
+                db.execSQL("INSERT INTO meal_history (historyId, day, type, name) " +
+                        "SELECT historyId, day, type, name FROM history_ids");
+                db.execSQL("CREATE INDEX idx_meal_history_day ON meal_history(day, type)");
+
+                // Ingredients that an id collision attached to two archived meals stay with the first
+                db.execSQL("ALTER TABLE meal_history_ingredients RENAME TO meal_history_ingredients_v12");
+                db.execSQL("CREATE TABLE meal_history_ingredients (historyId INTEGER NOT NULL, " +
+                        "name TEXT, category TEXT, quantity INTEGER)");
+                db.execSQL("INSERT INTO meal_history_ingredients (historyId, name, category, quantity) " +
+                        "SELECT h.historyId, i.name, i.category, i.quantity FROM meal_history_ingredients_v12 i " +
+                        "JOIN (SELECT day, mealId, MIN(historyId) AS historyId FROM history_ids GROUP BY day, mealId) h " +
+                        "ON h.day = i.day AND h.mealId = i.mealId ORDER BY i.rowid");
+                db.execSQL("DROP TABLE meal_history_ingredients_v12");
+                db.execSQL("CREATE INDEX idx_meal_history_ingredients_history ON meal_history_ingredients(historyId)");
+                db.execSQL("DROP TABLE history_ids");
+            }
+    };
+
+    // --- Shopping-list sort orders; both keep items grouped by category ---
+    public static final int SORT_BY_NAME = 0;      // Category, then name
+    public static final int SORT_BY_QUANTITY = 1;  // Category, then largest quantity first
+
+    // --- Recurrence days, one bit per day of the week with Sunday as bit 0 (strftime's %w) ---
+    public static final int EVERY_DAY = 0x7F;
+    public static final int WEEKDAYS = 0x3E;  // Monday to Friday
+
+    // How many days ahead, from today, recurring meals add their ingredients to the shopping list
+    public static final int RECURRENCE_SHOPPING_DAYS = 7;
+
+    // --- Meal history encoding ---
+    // Archived meal types are stored as their index here; anything unrecognised is stored as 0
+    private static final String[] HISTORY_MEAL_TYPES = {"Other", "Breakfast", "Lunch", "Dinner"};
+
+    // Turns a yyyy-MM-dd date column into a yyyyMMdd integer
+    private static final String HISTORY_DAY_SQL = "CAST(REPLACE(%s, '-', '') AS INTEGER)";
+
+    // --- Export cursor columns, shared by the live and archived meal-plan cursors ---
+    static final int EXPORT_DATE = 0;
+    static final int EXPORT_TYPE = 1;
+    static final int EXPORT_MEAL_NAME = 2;
+    static final int EXPORT_MEAL_ID = 3;
+    static final int EXPORT_INGREDIENT_NAME = 4; // Null for a meal without ingredients
+    static final int EXPORT_CATEGORY = 5;
+    static final int EXPORT_QUANTITY = 6;
 
     private static DatabaseHelper instance;
 
+    // --- Hot write statements, compiled once and reused ---
+    private static final String INSERT_MEAL_SQL =
+            "INSERT INTO meals (name, type, date) VALUES (?, ?, ?)";
+    private static final String INSERT_INGREDIENT_SQL =
+            "INSERT INTO ingredients (mealId, name, quantity, category) VALUES (?, ?, ?, ?)";
+    private static final String UPDATE_INGREDIENT_QUANTITY_SQL =
+            "UPDATE ingredients SET quantity = ? WHERE id = ?";
+    private static final String DELETE_INGREDIENT_SQL =
+            "DELETE FROM ingredients WHERE id = ?";
+    private static final String UPSERT_SHOPPING_ITEM_SQL =
+            "INSERT INTO ingredients (mealId, name, category, quantity) VALUES (NULL, ?, ?, ?) " +
+                    "ON CONFLICT(name, category) WHERE mealId IS NULL " +
+                    "DO UPDATE SET quantity = quantity + excluded.quantity";
+    private static final String ADD_TO_SHOPPING_ITEM_SQL =
+            "UPDATE ingredients SET quantity = quantity + ? WHERE mealId IS NULL AND name = ? AND category = ?";
+    private static final String INSERT_SHOPPING_ITEM_SQL =
+            "INSERT INTO ingredients (mealId, name, category, quantity) VALUES (NULL, ?, ?, ?)";
+    private static final String SAVE_IMPORT_CHECKPOINT_SQL =
+            "INSERT OR REPLACE INTO import_checkpoints (source, records) VALUES (?, ?)";
+
+    // --- Recipe copies, run entirely inside SQLite ---
+    private static final String SAVE_MEAL_AS_RECIPE_SQL =
+            "INSERT INTO recipes (name, type) SELECT name, type FROM meals WHERE id = ?";
+    private static final String COPY_MEAL_INGREDIENTS_TO_RECIPE_SQL =
+            "INSERT INTO recipe_ingredients (recipeId, name, category, quantity) " +
+                    "SELECT ?, name, category, quantity FROM ingredients WHERE mealId = ? ORDER BY id";
+    private static final String SCHEDULE_RECIPE_SQL =
+            "INSERT INTO meals (name, type, date) SELECT name, COALESCE(?, type), ? FROM recipes WHERE id = ?";
+    private static final String COPY_RECIPE_INGREDIENTS_TO_MEAL_SQL =
+            "INSERT INTO ingredients (mealId, name, quantity, category) " +
+                    "SELECT ?, name, quantity, category FROM recipe_ingredients WHERE recipeId = ? ORDER BY rowid";
+
+    // --- Recurrence expansion; occurrences are generated per query and never stored ---
+    // Every date of the queried window, from the first parameter to the second
+    private static final String RECURRENCE_DAYS_SQL =
+            "WITH RECURSIVE days(day) AS (SELECT date(?) UNION ALL " +
+                    "SELECT date(day, '+1 day') FROM days WHERE day < date(?)) ";
+    // Each rule's occurrences in the window, minus the dates it was overridden on
+    private static final String OCCURRENCES_SQL =
+            "SELECT r.id AS ruleId, r.name AS name, r.type AS type, days.day AS date " +
+                    "FROM recurrence_rules r JOIN days ON days.day >= r.startDate " +
+                    "AND (r.endDate IS NULL OR days.day <= r.endDate) " +
+                    "AND (r.daysOfWeek >> CAST(strftime('%w', days.day) AS INTEGER)) & 1 " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM recurrence_overrides o " +
+                    "WHERE o.ruleId = r.id AND o.date = days.day)";
+    private static final String INSERT_RECURRENCE_INGREDIENT_SQL =
+            "INSERT INTO recurrence_ingredients (ruleId, name, quantity, category) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_OVERRIDE_SQL =
+            "INSERT OR IGNORE INTO recurrence_overrides (ruleId, date, mealId) VALUES (?, ?, NULL)";
+    private static final String MATERIALIZE_OCCURRENCE_SQL =
+            "INSERT INTO meals (name, type, date) SELECT name, type, ? FROM recurrence_rules WHERE id = ?";
+    private static final String COPY_RECURRENCE_INGREDIENTS_TO_MEAL_SQL =
+            "INSERT INTO ingredients (mealId, name, quantity, category) " +
+                    "SELECT ?, name, quantity, category FROM recurrence_ingredients WHERE ruleId = ? ORDER BY rowid";
+
+    // Receives the tables and keys touched by every committed write
+    private final InvalidationTracker invalidationTracker = new InvalidationTracker();
+
+    // Process-wide copy of recently used meals and shopping-list items; mutations write through to it,
+    // or drop what they touched once their transaction commits
+    private final RecordCache recordCache = new RecordCache();
+
+    // Undo and redo history of shopping-list changes, persisted alongside them
+    private final OperationJournal operationJournal = new OperationJournal();
+
+    // Caches made stale by the calling thread's open transaction, or null outside runInTransaction
+    private final ThreadLocal<StaleCaches> staleCaches = new ThreadLocal<>();
+
+    // Whether any recurring meal is stored, as last read, and the rule generation it was read at
+    private volatile RecurrenceRulesState recurrenceRulesState;
+    private final AtomicInteger recurrenceRulesGeneration = new AtomicInteger();
+
+    // Compiled statements keyed by SQL, shared by all threads through withStatement()
+    private final Map<String, SQLiteStatement> statementCache = new HashMap<>();
+
+    /**
+     * Which parts of the record cache a transaction has made stale. They are dropped once it commits,
+     * so readers on other connections can never cache rows that were not committed yet.
+     */
+    private static final class StaleCaches {
+        boolean meals;
+        boolean ingredients;
+        boolean recurrenceRules;
+    }
+
+    /**
+     * Whether any recurring meal was stored when the rules were last read, at a given rule generation.
+     */
+    private static final class RecurrenceRulesState {
+        final int generation;
+        final boolean exists;
+
+        RecurrenceRulesState(int generation, boolean exists) {
+            this.generation = generation;
+            this.exists = exists;
+        }
+    }
+
+    /**
+     * Work to run against a cached statement while it is locked.
+     */
+    private interface StatementAction<T> {
+        T run(SQLiteStatement statement);
+    }
+
+    // --- Connection Lifecycle ---
+    // The connection stays open for the life of the process; components borrow it instead of closing it.
+    private static int borrowerCount;
+    private static final AtomicInteger openCount = new AtomicInteger();
+    private static final AtomicInteger closeCount = new AtomicInteger();
+
     /**
      * Private constructor to enforce the singleton pattern.
+     * Write-ahead logging is configured here so it is applied once, when the connection is first opened.
      */
     private DatabaseHelper(Context context) {
         super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
      * Returns the singleton instance of DatabaseHelper.
+     * The database itself is opened lazily on first use and is never closed by callers.
      */
     public static synchronized DatabaseHelper getInstance(Context context) {
         if (instance == null) {
             instance = new DatabaseHelper(context);
-            SQLiteDatabase db = instance.getWritableDatabase();
-            if (!db.isWriteAheadLoggingEnabled()) {
-                db.enableWriteAheadLogging();
-            }
         }
         return instance;
     }
 
+    /**
+     * Borrows the shared database for a component's lifetime.
+     * Every call must be balanced by a call to {@link #release()}.
+     */
+    public static synchronized DatabaseHelper acquire(Context context) {
+        DatabaseHelper helper = getInstance(context);
+        borrowerCount++;
+        return helper;
+    }
+
+    /**
+     * Returns a borrowed database. The connection stays open; when the last
+     * borrower leaves, SQLite is only asked to release the memory it can spare.
+     */
+    public static synchronized void release() {
+        if (borrowerCount == 0) {
+            return;
+        }
+        borrowerCount--;
+        if (borrowerCount == 0) {
+            SQLiteDatabase.releaseMemory();
+        }
+    }
+
+    /**
+     * Returns the number of components currently borrowing the database.
+     */
+    public static synchronized int getBorrowerCount() {
+        return borrowerCount;
+    }
+
+    /**
+     * Returns how many times the underlying database has been opened in this process.
+     */
+    public static int getOpenCount() {
+        return openCount.get();
+    }
+
+    /**
+     * Returns how many times the underlying database has been closed in this process.
+     */
+    public static int getCloseCount() {
+        return closeCount.get();
+    }
+
+    /**
+     * Returns the tracker that is told about every table and key a write touches.
+     */
+    public InvalidationTracker getInvalidationTracker() {
+        return invalidationTracker;
+    }
+
+    /**
+     * Returns the cache that serves repeated reads, for its hit and miss counters.
+     */
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
     // --- Lifecycle Methods ---
 
     /**
-     * Creates the database tables when the database is first created.
+     * Creates the base tables when the database is first created,
+     * then applies every migration so fresh installs match upgraded ones.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createBaseSchema(db);
+        runMigrations(db, BASE_SCHEMA_VERSION, DATABASE_VERSION);
+    }
+
+    /**
+     * Upgrades the database one version at a time, preserving existing data.
+     * Databases older than the base schema are unknown to the migrations and are recreated.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < BASE_SCHEMA_VERSION) {
+            db.execSQL("DROP TABLE IF EXISTS meals");
+            db.execSQL("DROP TABLE IF EXISTS ingredients");
+            onCreate(db);
+            return;
+        }
+        runMigrations(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Creates the tables as they were at BASE_SCHEMA_VERSION.
+     */
+    static void createBaseSchema(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE meals (id INTEGER PRIMARY KEY, name TEXT, type TEXT, date TEXT)");
         db.execSQL("CREATE TABLE ingredients (id INTEGER PRIMARY KEY, mealId INTEGER, name TEXT, " +
                 "quantity INTEGER, category TEXT, FOREIGN KEY (mealId) REFERENCES meals(id) ON DELETE CASCADE)");
     }
 
     /**
-     * Upgrades the database by dropping existing tables and creating new ones.
+     * Applies the migrations needed to move from one schema version to another, in order.
+     * Runs inside the transaction that SQLiteOpenHelper opens for onCreate and onUpgrade.
+     */
+    static void runMigrations(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion; version < toVersion; version++) {
+            MIGRATIONS[version - BASE_SCHEMA_VERSION].migrate(db);
+        }
+    }
+
+    /**
+     * Counts every time the underlying database is opened.
      */
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS meals");
-        db.execSQL("DROP TABLE IF EXISTS ingredients");
-        onCreate(db);
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        openCount.incrementAndGet();
     }
 
     /**
-     * Closes the database and resets the instance to null.
+     * Releases the cached statements before closing the underlying database.
      */
-    public static synchronized void closeDatabase() {
-        if (instance != null) {
-            instance.close();
-            instance = null;
+    @Override
+    public synchronized void close() {
+        synchronized (statementCache) {
+            for (SQLiteStatement statement : statementCache.values()) {
+                statement.close();
+            }
+            statementCache.clear();
+        }
+        super.close();
+        closeCount.incrementAndGet();
+    }
+
+    /**
+     * Binds and executes the cached statement for the given SQL, compiling it on first use.
+     * The write transaction is entered before the statement is locked, so a thread never
+     * waits for the database while holding a statement another transaction needs.
+     */
+    private <T> T withStatement(SQLiteDatabase db, String sql, StatementAction<T> action) {
+        db.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement statement;
+            synchronized (statementCache) {
+                statement = statementCache.get(sql);
+                if (statement == null) {
+                    statement = db.compileStatement(sql);
+                    statementCache.put(sql, statement);
+                }
+            }
+
+            T result;
+            synchronized (statement) {
+                statement.clearBindings();
+                result = action.run(statement);
+            }
+            db.setTransactionSuccessful();
+            return result;
+        } finally {
+            db.endTransaction();
         }
     }
 
     // --- CRUD Operations ---
 
     /**
-     * Adds a new meal and its ingredients to the database.
+     * Adds a new meal and its ingredients to the database in one transaction.
+     * Observers are told about the change once, after the commit.
+     *
+     * @return The new meal's ID, or -1 if it could not be saved.
      */
     public long addMeal(String name, String type, String date, List<Ingredient> ingredients) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.beginTransaction();
+        long[] mealId = {-1};
         try {
-            ContentValues values = new ContentValues();
-            values.put("name", name);
-            values.put("type", type);
-            values.put("date", date);
-
-            long mealId = db.insert("meals", null, values);
+            runInTransaction(() -> {
+                mealId[0] = withStatement(db, INSERT_MEAL_SQL, statement -> {
+                    statement.bindString(1, name);
+                    statement.bindString(2, type);
+                    statement.bindString(3, date);
+                    return statement.executeInsert();
+                });
+                if (ingredients != null) {
+                    addIngredients(db, mealId[0], ingredients);
+                }
+                writeThroughAddedMeal(new Meal(mealId[0], name, type, date));
+                invalidationTracker.notifyChanged(InvalidationTracker.TABLE_MEALS, date);
+            });
+        } catch (SQLException e) {
+            return -1; // runInTransaction has already dropped anything cached before the rollback
+        }
+        return mealId[0];
+    }
 
-            if (ingredients != null) {
+    /**
+     * Adds a batch of ingredients linked to a meal, binding and executing one
+     * compiled insert per row inside a single transaction.
+     * Ingredients with an empty name are skipped. Each category touched is reported once.
+     */
+    public void addIngredients(SQLiteDatabase db, long mealId, List<Ingredient> ingredients) {
+        Set<String> categories = new LinkedHashSet<>();
+        runInTransaction(() -> {
+            withStatement(db, INSERT_INGREDIENT_SQL, statement -> {
                 for (Ingredient ingredient : ingredients) {
                     if (!ingredient.getName().trim().isEmpty()) {
-                        addIngredient(db, (int) mealId, ingredient.getName(),
+                        bindIngredient(statement, mealId, ingredient.getName(),
                                 ingredient.getQuantity(), ingredient.getCategory());
+                        statement.executeInsert();
                     }
                 }
+                return null;
+            });
+            for (Ingredient ingredient : ingredients) {
+                if (!ingredient.getName().trim().isEmpty()) {
+                    writeThroughIngredient(capitalizeWord(ingredient.getName()), ingredient.getCategory());
+                    categories.add(ingredient.getCategory());
+                }
             }
-            db.setTransactionSuccessful();
-            return mealId;
-        } finally {
-            db.endTransaction();
+            for (String category : categories) {
+                invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, category);
+            }
+        });
+    }
+
+    /**
+     * Writes a batch of imported meals and their ingredients in one transaction through the
+     * compiled inserts, together with the import's checkpoint, so a batch and its resume
+     * point always commit or roll back together.
+     * The batch touches too many items to write through, so the record cache is cleared instead.
+     *
+     * @param meals       The validated meals to write.
+     * @param source      Identifies the file being imported, or null to write no checkpoint.
+     * @param recordsDone How many records of the file have been consumed once this batch is written.
+     */
+    void importMeals(List<MealImporter.ImportedMeal> meals, String source, long recordsDone) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        runInTransaction(() -> {
+            for (MealImporter.ImportedMeal meal : meals) {
+                long mealId = withStatement(db, INSERT_MEAL_SQL, statement -> {
+                    statement.bindString(1, meal.name);
+                    statement.bindString(2, meal.type);
+                    statement.bindString(3, meal.date);
+                    return statement.executeInsert();
+                });
+                if (!meal.ingredients.isEmpty()) {
+                    withStatement(db, INSERT_INGREDIENT_SQL, statement -> {
+                        for (Ingredient ingredient : meal.ingredients) {
+                            bindIngredient(statement, mealId, ingredient.getName(),
+                                    ingredient.getQuantity(), ingredient.getCategory());
+                            statement.executeInsert();
+                        }
+                        return null;
+                    });
+                }
+            }
+            if (source != null) {
+                withStatement(db, SAVE_IMPORT_CHECKPOINT_SQL, statement -> {
+                    statement.bindString(1, source);
+                    statement.bindLong(2, recordsDone);
+                    return statement.executeInsert();
+                });
+            }
+            invalidateMealCache();
+            invalidateIngredientCache();
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_MEALS, null);
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+        });
+    }
+
+    /**
+     * Returns how many records of a file an earlier, interrupted import already wrote, or 0.
+     *
+     * @param source Identifies the file being imported.
+     */
+    long getImportCheckpoint(String source) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT records FROM import_checkpoints WHERE source = ?", new String[]{source})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
         }
     }
 
+    /**
+     * Forgets the resume point of a file once it has been imported completely.
+     *
+     * @param source Identifies the file that was imported.
+     */
+    void clearImportCheckpoint(String source) {
+        getWritableDatabase().delete("import_checkpoints", "source = ?", new String[]{source});
+    }
+
     /**
      * Adds an ingredient to the database linked to a specific meal.
      */
     public void addIngredient(SQLiteDatabase db, int mealId, String name, int quantity, String category) {
-        ContentValues values = new ContentValues();
-        values.put("mealId", mealId);
-        values.put("name", capitalizeWord(name));
-        values.put("quantity", quantity);
-        values.put("category", category);
-        db.insert("ingredients", null, values);
+        withStatement(db, INSERT_INGREDIENT_SQL, statement -> {
+            bindIngredient(statement, mealId, name, quantity, category);
+            return statement.executeInsert();
+        });
+        writeThroughIngredient(capitalizeWord(name), category);
+        invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, category);
+    }
+
+    /**
+     * Binds one ingredient row to the compiled ingredient insert.
+     */
+    private void bindIngredient(SQLiteStatement statement, long mealId, String name, int quantity, String category) {
+        statement.bindLong(1, mealId);
+        statement.bindString(2, capitalizeWord(name));
+        statement.bindLong(3, quantity);
+        bindNullableString(statement, 4, category);
+    }
+
+    /**
+     * Binds a string that may be null to a statement parameter.
+     */
+    private static void bindNullableString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
     }
 
     /**
-     * Adds or updates an ingredient based on its name and category.
+     * Adds a quantity to the shopping-list item with the given name and category,
+     * creating the item if it does not exist yet. Shopping-list items are the rows
+     * without a meal, which are kept unique by name and category.
+     * Uses a single SQLite upsert where available (API 30+), otherwise an
+     * update-then-insert inside one transaction.
      */
     public void addOrUpdateIngredient(String name, String category, int quantity) {
         SQLiteDatabase db = this.getWritableDatabase();
-        String query = "SELECT id, quantity FROM ingredients WHERE name = ? AND category = ?";
-        try (Cursor cursor = db.rawQuery(query, new String[]{name, category})) {
-            if (cursor.moveToFirst()) {
-                int id = cursor.getInt(cursor.getColumnIndexOrThrow("id"));
-                int existingQuantity = cursor.getInt(cursor.getColumnIndexOrThrow("quantity"));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            withStatement(db, UPSERT_SHOPPING_ITEM_SQL, statement -> {
+                statement.bindString(1, name);
+                statement.bindString(2, category);
+                statement.bindLong(3, quantity);
+                return statement.executeInsert();
+            });
+            writeThroughIngredient(name, category);
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, category);
+            return;
+        }
 
-                ContentValues values = new ContentValues();
-                values.put("quantity", existingQuantity + quantity);
-                db.update("ingredients", values, "id = ?", new String[]{String.valueOf(id)});
-            } else {
-                ContentValues values = new ContentValues();
-                values.put("name", name);
-                values.put("category", category);
-                values.put("quantity", quantity);
-                db.insert("ingredients", null, values);
+        db.beginTransaction();
+        try {
+            int updated = withStatement(db, ADD_TO_SHOPPING_ITEM_SQL, statement -> {
+                statement.bindLong(1, quantity);
+                statement.bindString(2, name);
+                statement.bindString(3, category);
+                return statement.executeUpdateDelete();
+            });
+            if (updated == 0) {
+                withStatement(db, INSERT_SHOPPING_ITEM_SQL, statement -> {
+                    statement.bindString(1, name);
+                    statement.bindString(2, category);
+                    statement.bindLong(3, quantity);
+                    return statement.executeInsert();
+                });
             }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        writeThroughIngredient(name, category);
+        invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, category);
     }
 
     /**
@@ -148,8 +687,34 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public void deleteMeal(long mealId) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete("ingredients", "mealId = ?", new String[]{String.valueOf(mealId)});
-        db.delete("meals", "id = ?", new String[]{String.valueOf(mealId)});
+        String date = null;
+        Set<List<String>> items = new LinkedHashSet<>(); // Name and category of each ingredient removed
+        db.beginTransaction();
+        try (Cursor cursor = db.rawQuery("SELECT date FROM meals WHERE id = ?",
+                new String[]{String.valueOf(mealId)});
+             Cursor itemCursor = db.rawQuery("SELECT name, category FROM ingredients WHERE mealId = ?",
+                     new String[]{String.valueOf(mealId)})) {
+            if (cursor.moveToFirst()) {
+                date = cursor.getString(0);
+            }
+            while (itemCursor.moveToNext()) {
+                items.add(Arrays.asList(itemCursor.getString(0), itemCursor.getString(1)));
+            }
+            db.delete("ingredients", "mealId = ?", new String[]{String.valueOf(mealId)});
+            db.delete("meals", "id = ?", new String[]{String.valueOf(mealId)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (date != null) {
+            writeThroughRemovedMeal(date, mealId);
+            for (List<String> item : items) {
+                writeThroughIngredient(item.get(0), item.get(1));
+            }
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_MEALS, date);
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+        }
     }
 
     /**
@@ -158,16 +723,242 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public void deleteIngredientByNameAndCategory(String name, String category) {
         SQLiteDatabase db = this.getWritableDatabase();
         db.delete("ingredients", "name = ? AND category = ?", new String[]{name, category});
+        writeThroughDeletedIngredient(name, category);
+        invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, category);
+    }
+
+    /**
+     * Removes a quantity from a consolidated shopping-list item.
+     * The amount is taken from the item's own row first and then from meal rows,
+     * deleting any row whose quantity reaches zero.
+     */
+    public void removeIngredientQuantity(String name, String category, int quantityToRemove) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try (Cursor cursor = db.rawQuery("SELECT id, quantity FROM ingredients WHERE name = ? AND category = ? " +
+                "ORDER BY mealId IS NOT NULL, id", new String[]{name, category})) {
+            int remaining = quantityToRemove;
+            while (remaining > 0 && cursor.moveToNext()) {
+                int id = cursor.getInt(0);
+                int quantity = cursor.getInt(1);
+                if (quantity <= remaining) {
+                    executeDeleteIngredient(db, id);
+                    remaining -= quantity;
+                } else {
+                    executeUpdateQuantity(db, id, quantity - remaining);
+                    remaining = 0;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        writeThroughIngredient(name, category);
+        invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, category);
+    }
+
+    /**
+     * Runs a change to one shopping-list item and records it in the operation journal,
+     * so it can be undone. The change and its journal entry commit together.
+     *
+     * @param name     The name of the item the change touches.
+     * @param category The category of the item the change touches.
+     * @param change   The change to run; it must only touch rows of this item.
+     * @return The journal operation ID, or -1 if the change left the item as it was.
+     */
+    public long runJournaled(String name, String category, Runnable change) {
+        long[] operationId = {-1};
+        runInTransaction(() -> operationId[0] = operationJournal.record(getWritableDatabase(), name, category, change));
+        return operationId[0];
+    }
+
+    /**
+     * Undoes the most recent journaled shopping-list change.
+     *
+     * @return True if a change was undone, false if there was nothing to undo.
+     */
+    public boolean undoIngredientChange() {
+        return replayJournal(journal -> journal.undo(getWritableDatabase()));
+    }
+
+    /**
+     * Undoes one particular journaled shopping-list change, such as the one an undo prompt names.
+     *
+     * @param operationId The journal operation ID returned by runJournaled.
+     * @return True if it was undone, false if it no longer can be or a later change to the item is in the way.
+     */
+    public boolean undoIngredientChange(long operationId) {
+        return replayJournal(journal -> journal.undo(getWritableDatabase(), operationId));
+    }
+
+    /**
+     * Redoes the most recently undone shopping-list change.
+     *
+     * @return True if a change was redone, false if there was nothing to redo.
+     */
+    public boolean redoIngredientChange() {
+        return replayJournal(journal -> journal.redo(getWritableDatabase()));
+    }
+
+    /**
+     * One undo or redo step against the journal.
+     */
+    private interface JournalReplay {
+        OperationJournal.Operation run(OperationJournal journal);
+    }
+
+    /**
+     * Replays one journal operation in a transaction and writes the item it touched through.
+     */
+    private boolean replayJournal(JournalReplay replay) {
+        OperationJournal.Operation[] replayed = new OperationJournal.Operation[1];
+        runInTransaction(() -> {
+            replayed[0] = replay.run(operationJournal);
+            if (replayed[0] != null) {
+                writeThroughIngredient(replayed[0].name, replayed[0].category);
+                invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, replayed[0].category);
+            }
+        });
+        return replayed[0] != null;
+    }
+
+    /**
+     * Runs several writes in one transaction, so they cost a single commit.
+     * Changes are reported to observers only once the transaction has ended.
+     * Cached records the writes touched are dropped once after the commit rather than
+     * written through one by one, and the journal is reloaded if the transaction rolls back.
+     * Called inside another runInTransaction, the writes join the outer transaction.
+     *
+     * @param writes The writes to run; any exception rolls all of them back.
+     */
+    public void runInTransaction(Runnable writes) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.inTransaction()) {
+            writes.run();
+            return;
+        }
+        boolean committed = false;
+        StaleCaches stale = new StaleCaches();
+        staleCaches.set(stale);
+        invalidationTracker.holdChanges();
+        db.beginTransaction();
+        try {
+            writes.run();
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            staleCaches.remove();
+            if (stale.recurrenceRules) {
+                recurrenceRulesGeneration.incrementAndGet(); // Also on rollback, as reads inside it saw its rules
+            }
+            if (committed) {
+                if (stale.meals) {
+                    recordCache.clearMeals();
+                }
+                if (stale.ingredients) {
+                    recordCache.clearIngredients();
+                }
+            } else {
+                operationJournal.invalidate(); // Operations recorded before the rollback were never stored
+            }
+            invalidationTracker.releaseChanges();
+        }
     }
 
     /**
-     * Deletes meals that are older than today.
+     * Moves meals that are older than today, with their ingredients, into the meal history
+     * and removes them from the live tables, in one transaction.
+     * Past occurrences of recurring meals are archived too, after which each rule starts from today.
+     * The live tables then only hold today and the future; the history stays queryable.
      */
-    public void deleteOldMeals() {
-        String today = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(Calendar.getInstance().getTime());
+    public void archiveOldMeals() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+        Calendar calendar = Calendar.getInstance();
+        String today = dateFormat.format(calendar.getTime());
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+        String yesterday = dateFormat.format(calendar.getTime());
         SQLiteDatabase db = this.getWritableDatabase();
-        db.execSQL("DELETE FROM ingredients WHERE mealId IN (SELECT id FROM meals WHERE date < ?)", new String[]{today});
-        db.delete("meals", "date < ?", new String[]{today});
+        runInTransaction(() -> {
+            String[] args = {today};
+
+            // History ids continue from the last archived meal, so no archived meal is ever overwritten
+            long lastHistoryId = DatabaseUtils.longForQuery(db,
+                    "SELECT COALESCE(MAX(historyId), 0) FROM meal_history", null);
+            db.execSQL("INSERT INTO meal_history (historyId, day, type, name) SELECT ? + id, " +
+                    String.format(HISTORY_DAY_SQL, "date") + ", " + historyTypeSql("type") + ", name " +
+                    "FROM meals WHERE date < ?", new Object[]{lastHistoryId, today});
+            db.execSQL("INSERT INTO meal_history_ingredients (historyId, name, category, quantity) " +
+                    "SELECT ? + i.mealId, i.name, i.category, i.quantity " +
+                    "FROM ingredients i JOIN meals m ON m.id = i.mealId WHERE m.date < ? ORDER BY i.id",
+                    new Object[]{lastHistoryId, today});
+            archivePastOccurrences(db, yesterday);
+
+            Long firstDay = null;
+            try (Cursor cursor = db.rawQuery("SELECT MIN(day) FROM meal_history WHERE historyId > ?",
+                    new String[]{String.valueOf(lastHistoryId)})) {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    firstDay = cursor.getLong(0);
+                }
+            }
+            if (firstDay != null) {
+                db.execSQL("INSERT OR REPLACE INTO meal_history_months (month, meals) " +
+                        "SELECT day / 100, COUNT(*) FROM meal_history WHERE day >= ? GROUP BY day / 100",
+                        new Object[]{firstDay / 100 * 100});
+            }
+
+            // Overrides and rules that can no longer produce an occurrence; the others start from today
+            db.delete("recurrence_overrides", "date < ?", args);
+            db.delete("recurrence_ingredients", "ruleId IN (SELECT id FROM recurrence_rules WHERE endDate < ?)", args);
+            if (db.delete("recurrence_rules", "endDate < ?", args) > 0) {
+                markRecurrenceRulesChanged();
+            }
+            db.execSQL("UPDATE recurrence_rules SET startDate = ? WHERE startDate < ?", new Object[]{today, today});
+            if (hasRecurrenceRules(db)) {
+                invalidateIngredientCache(); // The shopping-list window has moved on by a day
+                invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+            }
+
+            db.execSQL("DELETE FROM ingredients WHERE mealId IN (SELECT id FROM meals WHERE date < ?)", args);
+            if (db.delete("meals", "date < ?", args) > 0) {
+                invalidateMealCache();
+                invalidateIngredientCache();
+                invalidationTracker.notifyChanged(InvalidationTracker.TABLE_MEALS, null);
+                invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+            }
+        });
+    }
+
+    /**
+     * Copies every occurrence of a recurring meal up to and including the given date into the
+     * meal history, with the ingredients of its rule. Overridden dates are left out; a replaced
+     * occurrence is a stored meal and is archived with the other meals.
+     * Must run inside archiveOldMeals' transaction.
+     */
+    private static void archivePastOccurrences(SQLiteDatabase db, String lastDate) {
+        String firstDate = DatabaseUtils.stringForQuery(db,
+                "SELECT COALESCE(MIN(startDate), '') FROM recurrence_rules", null);
+        if (firstDate.isEmpty() || firstDate.compareTo(lastDate) > 0) {
+            return; // No rule has a past occurrence
+        }
+        long lastHistoryId = DatabaseUtils.longForQuery(db,
+                "SELECT COALESCE(MAX(historyId), 0) FROM meal_history", null);
+        db.execSQL("CREATE TEMP TABLE IF NOT EXISTS archived_occurrences (seq INTEGER PRIMARY KEY, " +
+                "ruleId INTEGER, date TEXT, type TEXT, name TEXT)");
+        try {
+            db.execSQL(RECURRENCE_DAYS_SQL + "INSERT INTO archived_occurrences (ruleId, date, type, name) " +
+                    "SELECT ruleId, date, type, name FROM (" + OCCURRENCES_SQL + ") ORDER BY date, type, ruleId",
+                    new Object[]{firstDate, lastDate});
+            db.execSQL("INSERT INTO meal_history (historyId, day, type, name) SELECT ? + seq, " +
+                    String.format(HISTORY_DAY_SQL, "date") + ", " + historyTypeSql("type") + ", name " +
+                    "FROM archived_occurrences", new Object[]{lastHistoryId});
+            db.execSQL("INSERT INTO meal_history_ingredients (historyId, name, category, quantity) " +
+                    "SELECT ? + o.seq, ri.name, ri.category, ri.quantity FROM archived_occurrences o " +
+                    "JOIN recurrence_ingredients ri ON ri.ruleId = o.ruleId ORDER BY o.seq, ri.rowid",
+                    new Object[]{lastHistoryId});
+        } finally {
+            db.execSQL("DROP TABLE archived_occurrences");
+        }
     }
 
     // --- Retrieval Methods ---
@@ -178,8 +969,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public List<Meal> getMealsByDateAndType(String date, String type) {
         List<Meal> meals = new ArrayList<>();
         String query = "SELECT id, name, type, date FROM meals WHERE date = ? AND type = ?";
-        try (SQLiteDatabase db = this.getReadableDatabase();
-             Cursor cursor = db.rawQuery(query, new String[]{date, type})) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery(query, new String[]{date, type})) {
             while (cursor.moveToNext()) {
                 meals.add(new Meal(
                         cursor.getLong(cursor.getColumnIndexOrThrow("id")),
@@ -193,82 +984,733 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Retrieves ingredients by category.
+     * Retrieves every meal between two dates (inclusive) in a single query,
+     * grouped by date and then by meal type.
+     *
+     * @param startDate The first date of the range (yyyy-MM-dd).
+     * @param endDate   The last date of the range (yyyy-MM-dd).
+     * @return Meals keyed by date, then by type, in date order. Dates without meals are absent.
+     */
+    public Map<String, Map<String, List<Meal>>> getMealsInRange(String startDate, String endDate) {
+        Map<String, Map<String, List<Meal>>> cached = recordCache.getMealsInRange(startDate, endDate);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = recordCache.getMealGeneration();
+        Map<String, Map<String, List<Meal>>> mealsByDate = queryMealsInRange(startDate, endDate);
+        recordCache.putMealsInRange(startDate, endDate, mealsByDate, generation);
+        return mealsByDate;
+    }
+
+    /**
+     * Reads every meal between two dates from the database, bypassing the record cache.
+     * Occurrences of recurring meals in the range are expanded in the same query and
+     * follow the stored meals of their day and type.
      */
-    public List<Ingredient> getIngredientsByCategory(String category) {
+    private Map<String, Map<String, List<Meal>>> queryMealsInRange(String startDate, String endDate) {
+        Map<String, Map<String, List<Meal>>> mealsByDate = new LinkedHashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        String query;
+        String[] args;
+        if (hasRecurrenceRules(db)) {
+            query = RECURRENCE_DAYS_SQL +
+                    "SELECT id, name, type, date, 0 AS ruleId FROM meals WHERE date BETWEEN ? AND ? " +
+                    "UNION ALL SELECT -ruleId, name, type, date, ruleId FROM (" + OCCURRENCES_SQL + ") " +
+                    "ORDER BY date, type, ruleId, id";
+            args = new String[]{startDate, endDate, startDate, endDate};
+        } else {
+            query = "SELECT id, name, type, date, 0 AS ruleId FROM meals WHERE date BETWEEN ? AND ? ORDER BY date, type, id";
+            args = new String[]{startDate, endDate};
+        }
+        try (Cursor cursor = db.rawQuery(query, args)) {
+            int idIndex = cursor.getColumnIndexOrThrow("id");
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int typeIndex = cursor.getColumnIndexOrThrow("type");
+            int dateIndex = cursor.getColumnIndexOrThrow("date");
+            int ruleIdIndex = cursor.getColumnIndexOrThrow("ruleId");
+
+            while (cursor.moveToNext()) {
+                Meal meal = new Meal(
+                        cursor.getLong(idIndex),
+                        cursor.getString(nameIndex),
+                        cursor.getString(typeIndex),
+                        cursor.getString(dateIndex),
+                        cursor.getLong(ruleIdIndex)
+                );
+
+                addToDay(mealsByDate, meal);
+            }
+        }
+        return mealsByDate;
+    }
+
+    /**
+     * Adds a meal to its date and type in a grouped result.
+     */
+    private static void addToDay(Map<String, Map<String, List<Meal>>> mealsByDate, Meal meal) {
+        Map<String, List<Meal>> mealsByType = mealsByDate.get(meal.getDate());
+        if (mealsByType == null) {
+            mealsByType = new LinkedHashMap<>();
+            mealsByDate.put(meal.getDate(), mealsByType);
+        }
+        List<Meal> meals = mealsByType.get(meal.getType());
+        if (meals == null) {
+            meals = new ArrayList<>();
+            mealsByType.put(meal.getType(), meals);
+        }
+        meals.add(meal);
+    }
+
+    /**
+     * Writes a new meal through to its cached day, or marks the days stale inside runInTransaction.
+     */
+    private void writeThroughAddedMeal(Meal meal) {
+        StaleCaches stale = staleCaches.get();
+        if (stale != null) {
+            stale.meals = true;
+            return;
+        }
+        recordCache.addMeal(meal);
+    }
+
+    /**
+     * Writes a deleted meal through to its cached day, or marks the days stale inside runInTransaction.
+     */
+    private void writeThroughRemovedMeal(String date, long mealId) {
+        StaleCaches stale = staleCaches.get();
+        if (stale != null) {
+            stale.meals = true;
+            return;
+        }
+        recordCache.removeMeal(date, mealId);
+    }
+
+    /**
+     * Drops every cached day, after the commit when inside runInTransaction.
+     */
+    private void invalidateMealCache() {
+        StaleCaches stale = staleCaches.get();
+        if (stale != null) {
+            stale.meals = true;
+        } else {
+            recordCache.clearMeals();
+        }
+    }
+
+    // --- Meal History ---
+
+    /**
+     * Retrieves archived meals between two dates, grouped by date and meal type like
+     * {@link #getMealsInRange}. The range is a scan of the history's day index, so
+     * years of history cost no more than the days asked for.
+     * Each meal's id is its history id, which {@link #getMealHistoryIngredients} takes.
+     *
+     * @param startDate The first date of the range (yyyy-MM-dd).
+     * @param endDate   The last date of the range (yyyy-MM-dd).
+     */
+    public Map<String, Map<String, List<Meal>>> getMealHistory(String startDate, String endDate) {
+        Map<String, Map<String, List<Meal>>> mealsByDate = new LinkedHashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT day, type, historyId, name FROM meal_history " +
+                "WHERE day BETWEEN ? AND ? ORDER BY day, type, historyId",
+                new String[]{String.valueOf(encodeHistoryDay(startDate)), String.valueOf(encodeHistoryDay(endDate))})) {
+            while (cursor.moveToNext()) {
+                addToDay(mealsByDate, new Meal(cursor.getLong(2), cursor.getString(3),
+                        decodeHistoryType(cursor.getInt(1)), decodeHistoryDay(cursor.getInt(0))));
+            }
+        }
+        return mealsByDate;
+    }
+
+    /**
+     * Retrieves the ingredients of an archived meal.
+     *
+     * @param meal A meal returned by {@link #getMealHistory}.
+     */
+    public List<Ingredient> getMealHistoryIngredients(Meal meal) {
         List<Ingredient> ingredients = new ArrayList<>();
-        String query = "SELECT * FROM ingredients WHERE category = ?";
-        try (SQLiteDatabase db = this.getReadableDatabase();
-             Cursor cursor = db.rawQuery(query, new String[]{category})) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT name, category, quantity FROM meal_history_ingredients " +
+                "WHERE historyId = ? ORDER BY rowid", new String[]{String.valueOf(meal.getId())})) {
             while (cursor.moveToNext()) {
-                ingredients.add(new Ingredient(
-                        cursor.getInt(cursor.getColumnIndexOrThrow("id")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("name")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("category")),
-                        cursor.getInt(cursor.getColumnIndexOrThrow("quantity"))
-                ));
+                ingredients.add(new Ingredient(0, cursor.getString(0), cursor.getString(1), cursor.getInt(2)));
             }
         }
         return ingredients;
     }
 
     /**
-     * Searches for ingredients by name.
+     * Retrieves the months that hold archived meals, newest first.
+     *
+     * @return The number of archived meals keyed by month (yyyy-MM).
      */
-    public List<Ingredient> getIngredientsByName(String query) {
-        List<Ingredient> ingredients = new ArrayList<>();
-        String sqlQuery = "SELECT * FROM ingredients WHERE name LIKE ?";
-        try (SQLiteDatabase db = this.getReadableDatabase();
-             Cursor cursor = db.rawQuery(sqlQuery, new String[]{"%" + query + "%"})) {
+    public Map<String, Integer> getMealHistoryMonths() {
+        Map<String, Integer> months = new LinkedHashMap<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT month, meals FROM meal_history_months ORDER BY month DESC", null)) {
             while (cursor.moveToNext()) {
-                ingredients.add(new Ingredient(
-                        cursor.getInt(cursor.getColumnIndexOrThrow("id")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("name")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("category")),
-                        cursor.getInt(cursor.getColumnIndexOrThrow("quantity"))
-                ));
+                int month = cursor.getInt(0);
+                months.put(String.format(Locale.US, "%04d-%02d", month / 100, month % 100), cursor.getInt(1));
             }
         }
+        return months;
+    }
+
+    // --- Recipes ---
+
+    /**
+     * Saves a planned meal and its ingredients as a recipe template, copying the rows inside SQLite.
+     *
+     * @param mealId The meal to save.
+     * @return The new recipe ID, or -1 if the meal does not exist.
+     */
+    public long saveMealAsRecipe(long mealId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long[] recipeId = {-1};
+        runInTransaction(() -> {
+            recipeId[0] = withStatement(db, SAVE_MEAL_AS_RECIPE_SQL, statement -> {
+                statement.bindLong(1, mealId);
+                return statement.executeInsert();
+            });
+            if (recipeId[0] == -1) {
+                return;
+            }
+            withStatement(db, COPY_MEAL_INGREDIENTS_TO_RECIPE_SQL, statement -> {
+                statement.bindLong(1, recipeId[0]);
+                statement.bindLong(2, mealId);
+                return statement.executeInsert();
+            });
+        });
+        return recipeId[0];
+    }
+
+    /**
+     * Schedules recipes onto a date. Each becomes a meal whose ingredients are copied from the
+     * template with one INSERT ... SELECT, so no ingredient passes through Java.
+     * All of them commit together.
+     *
+     * @param recipeIds The recipes to schedule.
+     * @param date      The date to plan them on (yyyy-MM-dd).
+     * @param type      The meal type to plan them as, or null to use each recipe's own type.
+     * @return The number of meals planned.
+     */
+    public int scheduleRecipes(List<Long> recipeIds, String date, String type) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        List<Long> mealIds = new ArrayList<>();
+        runInTransaction(() -> {
+            for (long recipeId : recipeIds) {
+                long mealId = withStatement(db, SCHEDULE_RECIPE_SQL, statement -> {
+                    bindNullableString(statement, 1, type);
+                    statement.bindString(2, date);
+                    statement.bindLong(3, recipeId);
+                    return statement.executeInsert();
+                });
+                if (mealId == -1) {
+                    continue;  // The recipe was deleted
+                }
+                withStatement(db, COPY_RECIPE_INGREDIENTS_TO_MEAL_SQL, statement -> {
+                    statement.bindLong(1, mealId);
+                    statement.bindLong(2, recipeId);
+                    return statement.executeInsert();
+                });
+                mealIds.add(mealId);
+            }
+            if (mealIds.isEmpty()) {
+                return;
+            }
+
+            invalidateMealCache();
+            invalidateIngredientCache(); // Many items may have changed
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_MEALS, date);
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+        });
+        return mealIds.size();
+    }
+
+    /**
+     * Retrieves every recipe template with its ingredient count, by name.
+     */
+    public List<Recipe> getRecipes() {
+        List<Recipe> recipes = new ArrayList<>();
+        SQLiteDatabase db = this.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT r.id, r.name, r.type, COUNT(i.recipeId) FROM recipes r " +
+                "LEFT JOIN recipe_ingredients i ON i.recipeId = r.id GROUP BY r.id ORDER BY r.name COLLATE NOCASE", null)) {
+            while (cursor.moveToNext()) {
+                recipes.add(new Recipe(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getInt(3)));
+            }
+        }
+        return recipes;
+    }
+
+    /**
+     * Deletes a recipe template. Meals already planned from it are kept.
+     */
+    public void deleteRecipe(long recipeId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] args = {String.valueOf(recipeId)};
+        runInTransaction(() -> {
+            db.delete("recipe_ingredients", "recipeId = ?", args);
+            db.delete("recipes", "id = ?", args);
+        });
+    }
+
+    // --- Recurring Meals ---
+
+    /**
+     * Stores a recurring meal as a single rule with its ingredients.
+     * Its occurrences are expanded only when a range of dates is queried.
+     *
+     * @param name        The name of the meal.
+     * @param type        The meal type (e.g., Breakfast).
+     * @param startDate   The first date it may occur on (yyyy-MM-dd).
+     * @param endDate     The last date it may occur on (yyyy-MM-dd), or null to repeat until deleted.
+     * @param daysOfWeek  The days it occurs on, one bit per day with Sunday as bit 0 (e.g., EVERY_DAY).
+     * @param ingredients The ingredients of each occurrence.
+     * @return The rule ID.
+     */
+    public long addRecurringMeal(String name, String type, String startDate, String endDate, int daysOfWeek,
+                                 List<Ingredient> ingredients) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long[] ruleId = {-1};
+        runInTransaction(() -> {
+            ContentValues values = new ContentValues();
+            values.put("name", name);
+            values.put("type", type);
+            values.put("startDate", startDate);
+            values.put("endDate", endDate);
+            values.put("daysOfWeek", daysOfWeek);
+            ruleId[0] = db.insertOrThrow("recurrence_rules", null, values);
+            markRecurrenceRulesChanged();
+            withStatement(db, INSERT_RECURRENCE_INGREDIENT_SQL, statement -> {
+                for (Ingredient ingredient : ingredients) {
+                    if (!ingredient.getName().trim().isEmpty()) {
+                        bindIngredient(statement, ruleId[0], ingredient.getName(),
+                                ingredient.getQuantity(), ingredient.getCategory());
+                        statement.executeInsert();
+                    }
+                }
+                return null;
+            });
+            onRecurrenceChanged(null);
+        });
+        return ruleId[0];
+    }
+
+    /**
+     * Deletes a recurring meal with its ingredients and overrides.
+     * Meals that replaced one of its occurrences are kept.
+     *
+     * @param ruleId The rule to delete.
+     */
+    public void deleteRecurringMeal(long ruleId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] args = {String.valueOf(ruleId)};
+        runInTransaction(() -> {
+            db.delete("recurrence_ingredients", "ruleId = ?", args);
+            db.delete("recurrence_overrides", "ruleId = ?", args);
+            db.delete("recurrence_rules", "id = ?", args);
+            markRecurrenceRulesChanged();
+            onRecurrenceChanged(null);
+        });
+    }
+
+    /**
+     * Leaves out one occurrence of a recurring meal.
+     *
+     * @param ruleId The rule the occurrence comes from.
+     * @param date   The date of the occurrence (yyyy-MM-dd).
+     */
+    public void skipOccurrence(long ruleId, String date) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        runInTransaction(() -> {
+            withStatement(db, INSERT_OVERRIDE_SQL, statement -> {
+                statement.bindLong(1, ruleId);
+                statement.bindString(2, date);
+                return statement.executeInsert();
+            });
+            onRecurrenceChanged(date);
+        });
+    }
+
+    /**
+     * Replaces one occurrence of a recurring meal with a stored meal, copied from the rule
+     * inside SQLite, which can then be changed or deleted like any other meal.
+     * The rule no longer produces that date.
+     *
+     * @param ruleId The rule the occurrence comes from.
+     * @param date   The date of the occurrence (yyyy-MM-dd).
+     * @return The ID of the stored meal, or -1 if the occurrence was already overridden.
+     */
+    public long overrideOccurrence(long ruleId, String date) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long[] mealId = {-1};
+        runInTransaction(() -> {
+            long inserted = withStatement(db, INSERT_OVERRIDE_SQL, statement -> {
+                statement.bindLong(1, ruleId);
+                statement.bindString(2, date);
+                return statement.executeInsert();
+            });
+            if (inserted == -1) {
+                return; // Already skipped or replaced
+            }
+            mealId[0] = withStatement(db, MATERIALIZE_OCCURRENCE_SQL, statement -> {
+                statement.bindString(1, date);
+                statement.bindLong(2, ruleId);
+                return statement.executeInsert();
+            });
+            if (mealId[0] == -1) {
+                return; // The rule was deleted
+            }
+            withStatement(db, COPY_RECURRENCE_INGREDIENTS_TO_MEAL_SQL, statement -> {
+                statement.bindLong(1, mealId[0]);
+                statement.bindLong(2, ruleId);
+                return statement.executeInsert();
+            });
+            db.execSQL("UPDATE recurrence_overrides SET mealId = ? WHERE ruleId = ? AND date = ?",
+                    new Object[]{mealId[0], ruleId, date});
+            onRecurrenceChanged(date);
+        });
+        return mealId[0];
+    }
+
+    /**
+     * Checks whether any recurring meal is stored, so queries only expand occurrences when needed.
+     * The answer is read once per change to the rules and reused until the next one.
+     */
+    private boolean hasRecurrenceRules(SQLiteDatabase db) {
+        int generation = recurrenceRulesGeneration.get();
+        RecurrenceRulesState known = recurrenceRulesState;
+        if (known != null && known.generation == generation) {
+            return known.exists;
+        }
+        boolean exists;
+        try (Cursor cursor = db.rawQuery("SELECT EXISTS (SELECT 1 FROM recurrence_rules)", null)) {
+            exists = cursor.moveToFirst() && cursor.getInt(0) != 0;
+        }
+        recurrenceRulesState = new RecurrenceRulesState(generation, exists);
+        return exists;
+    }
+
+    /**
+     * Makes the next hasRecurrenceRules() read the rules again, once the open transaction has ended.
+     * Bumping the generation only then means a read that raced the write cannot outlive it.
+     */
+    private void markRecurrenceRulesChanged() {
+        StaleCaches stale = staleCaches.get();
+        if (stale != null) {
+            stale.recurrenceRules = true;
+        } else {
+            recurrenceRulesGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops cached days and shopping-list items that may include changed occurrences and notifies observers.
+     *
+     * @param date The only date that changed, or null if any date may have.
+     */
+    private void onRecurrenceChanged(String date) {
+        invalidateMealCache();
+        invalidateIngredientCache();
+        invalidationTracker.notifyChanged(InvalidationTracker.TABLE_MEALS, date);
+        invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+    }
+
+    // --- Export ---
+
+    /**
+     * Opens a cursor over meals joined with their ingredients, one row per ingredient and one
+     * for a meal without any, ordered by date, type and meal. Columns are the EXPORT_ constants.
+     * The cursor fills one window at a time, so it can be walked over any amount of data.
+     * The caller must close it.
+     *
+     * @param archived True for the meal history, false for the live plan.
+     */
+    Cursor openMealPlanCursor(boolean archived) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        if (archived) {
+            return db.rawQuery("SELECT printf('%04d-%02d-%02d', h.day / 10000, h.day / 100 % 100, h.day % 100), " +
+                    historyTypeNameSql("h.type") + ", h.name, h.historyId, i.name, i.category, i.quantity " +
+                    "FROM meal_history h LEFT JOIN meal_history_ingredients i ON i.historyId = h.historyId " +
+                    "ORDER BY h.day, h.type, h.historyId, i.rowid", null);
+        }
+        return db.rawQuery("SELECT m.date, m.type, m.name, m.id, i.name, i.category, i.quantity " +
+                "FROM meals m LEFT JOIN ingredients i ON i.mealId = m.id " +
+                "ORDER BY m.date, m.type, m.id, i.id", null);
+    }
+
+    /**
+     * Opens a cursor over the consolidated shopping list as (name, category, quantity),
+     * grouped by category. The caller must close it.
+     */
+    Cursor openShoppingListCursor() {
+        return getReadableDatabase().rawQuery("SELECT name, category, SUM(quantity) FROM ingredients " +
+                "GROUP BY category, name ORDER BY category, name", null);
+    }
+
+    /**
+     * Returns a SQL expression that decodes a history type code column back into its meal type.
+     */
+    private static String historyTypeNameSql(String column) {
+        StringBuilder sql = new StringBuilder("CASE ").append(column);
+        for (int code = 1; code < HISTORY_MEAL_TYPES.length; code++) {
+            sql.append(" WHEN ").append(code).append(" THEN '").append(HISTORY_MEAL_TYPES[code]).append('\'');
+        }
+        return sql.append(" ELSE '").append(HISTORY_MEAL_TYPES[0]).append("' END").toString();
+    }
+
+    /**
+     * Encodes a yyyy-MM-dd date as a yyyyMMdd integer, or 0 if it is malformed.
+     */
+    private static int encodeHistoryDay(String date) {
+        try {
+            return Integer.parseInt(date.replace("-", ""));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Decodes a yyyyMMdd integer back into a yyyy-MM-dd date.
+     */
+    private static String decodeHistoryDay(int day) {
+        return String.format(Locale.US, "%04d-%02d-%02d", day / 10000, day / 100 % 100, day % 100);
+    }
+
+    /**
+     * Returns the meal type stored under a history type code.
+     */
+    private static String decodeHistoryType(int code) {
+        return code > 0 && code < HISTORY_MEAL_TYPES.length ? HISTORY_MEAL_TYPES[code] : HISTORY_MEAL_TYPES[0];
+    }
+
+    /**
+     * Returns a SQL expression that encodes a meal type column as its history type code.
+     */
+    private static String historyTypeSql(String column) {
+        StringBuilder sql = new StringBuilder("CASE ").append(column);
+        for (int code = 1; code < HISTORY_MEAL_TYPES.length; code++) {
+            sql.append(" WHEN '").append(HISTORY_MEAL_TYPES[code]).append("' THEN ").append(code);
+        }
+        return sql.append(" ELSE 0 END").toString();
+    }
+
+    /**
+     * Retrieves shopping-list items in a category, one row per name.
+     *
+     * @param sortOrder SORT_BY_NAME or SORT_BY_QUANTITY.
+     */
+    public List<Ingredient> getIngredientsByCategory(String category, int sortOrder) {
+        List<Ingredient> cached = recordCache.getIngredients(category, sortOrder);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = recordCache.getIngredientGeneration();
+        List<Ingredient> ingredients = queryConsolidatedIngredients("category = ?", new String[]{category}, sortOrder);
+        recordCache.putIngredients(category, sortOrder, ingredients, generation);
         return ingredients;
     }
 
     /**
-     * Retrieves a specific ingredient by name and category.
+     * Searches for shopping-list items by name through the full-text index.
+     * Every word in the query must match the start of a word in the name,
+     * so "gre pep" finds "Green pepper". An empty query returns the whole list.
+     *
+     * @param sortOrder SORT_BY_NAME or SORT_BY_QUANTITY.
      */
-    public Ingredient getIngredientByNameAndCategory(String name, String category) {
-        String query = "SELECT * FROM ingredients WHERE name = ? AND category = ?";
-        try (SQLiteDatabase db = this.getReadableDatabase();
-             Cursor cursor = db.rawQuery(query, new String[]{name, category})) {
-            if (cursor.moveToFirst()) {
-                return new Ingredient(
-                        cursor.getInt(cursor.getColumnIndexOrThrow("id")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("name")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("category")),
-                        cursor.getInt(cursor.getColumnIndexOrThrow("quantity"))
-                );
+    public List<Ingredient> searchIngredients(String query, int sortOrder) {
+        String matchQuery = toPrefixMatchQuery(query);
+        if (matchQuery.isEmpty()) {
+            return getConsolidatedIngredients(sortOrder);
+        }
+        // Rows from recurring meals are not in the full-text index, so they are matched by prefix instead
+        List<String> args = new ArrayList<>();
+        args.add(matchQuery);
+        String likeSelection = toPrefixLikeSelection(query, args);
+        return queryConsolidatedIngredients(
+                "id IN (SELECT docid FROM ingredients_fts WHERE ingredients_fts MATCH ?) OR id < 0 AND " + likeSelection,
+                args.toArray(new String[0]), sortOrder);
+    }
+
+    /**
+     * Builds the LIKE equivalent of an FTS prefix query: every word must start a word in the name.
+     *
+     * @param query The free-text query.
+     * @param args  Receives the arguments of the returned selection.
+     * @return The selection, in parentheses.
+     */
+    private static String toPrefixLikeSelection(String query, List<String> args) {
+        StringBuilder selection = new StringBuilder("(");
+        for (String token : query.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                if (selection.length() > 1) {
+                    selection.append(" AND ");
+                }
+                selection.append("(name LIKE ? OR name LIKE ?)");
+                args.add(token + "%");
+                args.add("% " + token + "%");
+            }
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Converts free text into an FTS prefix query, dropping characters that have
+     * a meaning in the MATCH syntax.
+     */
+    private static String toPrefixMatchQuery(String query) {
+        StringBuilder matchQuery = new StringBuilder();
+        if (query == null) {
+            return "";
+        }
+        for (String token : query.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                if (matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                matchQuery.append(token).append('*');
             }
         }
-        return null;
+        return matchQuery.toString();
+    }
+
+    /**
+     * Retrieves a specific shopping-list item by name and category, with its total quantity.
+     */
+    public Ingredient getIngredientByNameAndCategory(String name, String category) {
+        Ingredient cached = recordCache.getIngredient(name, category);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = recordCache.getIngredientGeneration();
+        Ingredient ingredient = queryIngredientByNameAndCategory(name, category);
+        if (ingredient != null) {
+            recordCache.putIngredient(ingredient, generation);
+        }
+        return ingredient;
+    }
+
+    /**
+     * Reads a shopping-list item from the database, bypassing the record cache.
+     */
+    private Ingredient queryIngredientByNameAndCategory(String name, String category) {
+        List<Ingredient> matches = queryConsolidatedIngredients(
+                "name = ? AND category = ?", new String[]{name, category}, SORT_BY_NAME);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * Re-reads a shopping-list item after a mutation and writes it through to the record cache.
+     * Inside runInTransaction the shopping list is only marked stale instead.
+     */
+    private void writeThroughIngredient(String name, String category) {
+        StaleCaches stale = staleCaches.get();
+        if (stale != null) {
+            stale.ingredients = true;
+            return;
+        }
+        recordCache.writeIngredient(name, category, queryIngredientByNameAndCategory(name, category));
+    }
+
+    /**
+     * Removes a deleted shopping-list item from the record cache, or marks the list stale inside runInTransaction.
+     */
+    private void writeThroughDeletedIngredient(String name, String category) {
+        StaleCaches stale = staleCaches.get();
+        if (stale != null) {
+            stale.ingredients = true;
+            return;
+        }
+        recordCache.writeIngredient(name, category, null);
+    }
+
+    /**
+     * Drops every cached shopping-list item, after the commit when inside runInTransaction.
+     */
+    private void invalidateIngredientCache() {
+        StaleCaches stale = staleCaches.get();
+        if (stale != null) {
+            stale.ingredients = true;
+        } else {
+            recordCache.clearIngredients();
+        }
     }
 
     /**
      * Retrieves consolidated ingredients by summing quantities with the same name and category.
+     *
+     * @param sortOrder SORT_BY_NAME or SORT_BY_QUANTITY.
+     */
+    public List<Ingredient> getConsolidatedIngredients(int sortOrder) {
+        List<Ingredient> cached = recordCache.getIngredients(null, sortOrder);
+        if (cached != null) {
+            return cached;
+        }
+        int generation = recordCache.getIngredientGeneration();
+        List<Ingredient> ingredients = queryConsolidatedIngredients(null, null, sortOrder);
+        recordCache.putIngredients(null, sortOrder, ingredients, generation);
+        return ingredients;
+    }
+
+    /**
+     * Runs the shopping-list consolidation in SQLite: one row per name and category,
+     * with the summed quantity and the lowest row ID as its representative ID.
+     * Rows come back grouped by category, ready to be shown in sections.
+     * Grouping by (category, name) walks idx_ingredients_category_name, so sorting by
+     * name needs no extra sort step; sorting by quantity sorts the grouped rows.
+     * While recurring meals exist, their ingredients for the next RECURRENCE_SHOPPING_DAYS days
+     * are expanded into the rows being grouped, with negative IDs.
+     *
+     * @param selection     Optional WHERE clause without the keyword, or null for all rows.
+     * @param selectionArgs Arguments for the selection placeholders.
+     * @param sortOrder     SORT_BY_NAME or SORT_BY_QUANTITY.
+     * @return The consolidated ingredients, grouped by category in the requested order.
      */
-    public List<Ingredient> getConsolidatedIngredients() {
+    private List<Ingredient> queryConsolidatedIngredients(String selection, String[] selectionArgs, int sortOrder) {
         List<Ingredient> ingredients = new ArrayList<>();
         SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT id, name, category, quantity FROM ingredients", null);
-        if (cursor.moveToFirst()) {
-            do {
+        String source = "ingredients";
+        String prefix = "";
+        String[] args = selectionArgs;
+        if (hasRecurrenceRules(db)) {
+            Calendar calendar = Calendar.getInstance();
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+            String today = dateFormat.format(calendar.getTime());
+            calendar.add(Calendar.DAY_OF_MONTH, RECURRENCE_SHOPPING_DAYS - 1);
+            String lastDay = dateFormat.format(calendar.getTime());
+
+            prefix = RECURRENCE_DAYS_SQL;
+            source = "(SELECT id, name, category, quantity FROM ingredients UNION ALL " +
+                    "SELECT -ri.rowid AS id, ri.name, ri.category, ri.quantity FROM recurrence_ingredients ri " +
+                    "JOIN (" + OCCURRENCES_SQL + ") occurrence ON occurrence.ruleId = ri.ruleId)";
+            args = new String[2 + (selectionArgs != null ? selectionArgs.length : 0)];
+            args[0] = today;
+            args[1] = lastDay;
+            if (selectionArgs != null) {
+                System.arraycopy(selectionArgs, 0, args, 2, selectionArgs.length);
+            }
+        }
+        // A stored row, when there is one, represents the item, so its ID stays stable
+        String query = prefix + "SELECT COALESCE(MIN(CASE WHEN id > 0 THEN id END), MIN(id)) AS id, " +
+                "name, category, SUM(quantity) AS quantity FROM " + source +
+                (selection != null ? " WHERE " + selection : "") +
+                " GROUP BY category, name ORDER BY " +
+                (sortOrder == SORT_BY_QUANTITY ? "category, SUM(quantity) DESC, name" : "category, name");
+        try (Cursor cursor = db.rawQuery(query, args)) {
+            int idIndex = cursor.getColumnIndexOrThrow("id");
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int categoryIndex = cursor.getColumnIndexOrThrow("category");
+            int quantityIndex = cursor.getColumnIndexOrThrow("quantity");
+
+            while (cursor.moveToNext()) {
                 ingredients.add(new Ingredient(
-                        cursor.getInt(cursor.getColumnIndexOrThrow("id")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("name")),
-                        cursor.getString(cursor.getColumnIndexOrThrow("category")),
-                        cursor.getInt(cursor.getColumnIndexOrThrow("quantity"))
+                        cursor.getInt(idIndex),
+                        cursor.getString(nameIndex),
+                        cursor.getString(categoryIndex),
+                        cursor.getInt(quantityIndex)
                 ));
-            } while (cursor.moveToNext());
+            }
         }
-        cursor.close();
         return ingredients;
     }
 
@@ -278,10 +1720,46 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * Updates the quantity of an ingredient by its ID.
      */
     public boolean updateIngredientQuantity(int id, int newQuantity) {
-        SQLiteDatabase db = getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put("quantity", newQuantity);
-        int rowsAffected = db.update("ingredients", values, "id = ?", new String[]{String.valueOf(id)});
+        boolean updated = executeUpdateQuantity(getWritableDatabase(), id, newQuantity);
+        if (updated) {
+            invalidateIngredientCache(); // The row's item is not known here
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes a single ingredient row by its ID.
+     */
+    public boolean deleteIngredientById(int id) {
+        boolean deleted = executeDeleteIngredient(getWritableDatabase(), id);
+        if (deleted) {
+            invalidateIngredientCache(); // The row's item is not known here
+            invalidationTracker.notifyChanged(InvalidationTracker.TABLE_INGREDIENTS, null);
+        }
+        return deleted;
+    }
+
+    /**
+     * Runs the cached quantity update without reporting the change.
+     */
+    private boolean executeUpdateQuantity(SQLiteDatabase db, int id, int newQuantity) {
+        int rowsAffected = withStatement(db, UPDATE_INGREDIENT_QUANTITY_SQL, statement -> {
+            statement.bindLong(1, newQuantity);
+            statement.bindLong(2, id);
+            return statement.executeUpdateDelete();
+        });
+        return rowsAffected > 0;
+    }
+
+    /**
+     * Runs the cached delete-by-ID without reporting the change.
+     */
+    private boolean executeDeleteIngredient(SQLiteDatabase db, int id) {
+        int rowsAffected = withStatement(db, DELETE_INGREDIENT_SQL, statement -> {
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        });
         return rowsAffected > 0;
     }
 
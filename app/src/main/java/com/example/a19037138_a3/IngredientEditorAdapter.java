@@ -0,0 +1,203 @@
+package com.example.a19037138_a3;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ImageButton;
+import android.widget.Spinner;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adapter for the ingredient rows of the add-meal form.
+ * The rows' contents live in a list of drafts rather than in the views, so recycled rows
+ * only rebind and the form is read back without walking the view tree.
+ * Every row's category spinner shares the one category adapter passed in.
+ */
+public class IngredientEditorAdapter extends RecyclerView.Adapter<IngredientEditorAdapter.ViewHolder> {
+
+    /**
+     * An ingredient as currently entered in the form.
+     */
+    public static final class Draft {
+        String name = "";
+        String quantity = "";
+        String category;
+
+        /**
+         * Returns the name as entered.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the quantity text as entered, possibly empty.
+         */
+        public String getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * Returns the selected category.
+         */
+        public String getCategory() {
+            return category;
+        }
+
+        /**
+         * Returns whether both the name and the quantity have been filled in.
+         */
+        boolean isComplete() {
+            return !name.isEmpty() && !quantity.isEmpty();
+        }
+    }
+
+    /**
+     * Interface to handle row removal events.
+     */
+    public interface OnRowRemovedListener {
+        void onRowRemoved(Draft draft);
+    }
+
+    private final List<Draft> drafts = new ArrayList<>();
+    private final ArrayAdapter<CharSequence> categoryAdapter; // Shared by every row's spinner
+    private final OnRowRemovedListener removedListener;
+
+    /**
+     * Creates an empty editor.
+     *
+     * @param categoryAdapter The category choices, shared by every row.
+     * @param removedListener Listener told when a row is removed.
+     */
+    public IngredientEditorAdapter(ArrayAdapter<CharSequence> categoryAdapter, OnRowRemovedListener removedListener) {
+        this.categoryAdapter = categoryAdapter;
+        this.removedListener = removedListener;
+    }
+
+    /**
+     * Appends an empty row with the first category selected.
+     *
+     * @return The position of the new row.
+     */
+    public int addRow() {
+        Draft draft = new Draft();
+        draft.category = categoryAdapter.getCount() > 0 ? categoryAdapter.getItem(0).toString() : "";
+        drafts.add(draft);
+        notifyItemInserted(drafts.size() - 1);
+        return drafts.size() - 1;
+    }
+
+    /**
+     * Returns whether the last row is filled in, or true if there are no rows.
+     */
+    public boolean isLastRowComplete() {
+        return drafts.isEmpty() || drafts.get(drafts.size() - 1).isComplete();
+    }
+
+    /**
+     * Returns the rows as currently entered.
+     */
+    public List<Draft> getDrafts() {
+        return Collections.unmodifiableList(drafts);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.ingredient_editor_row, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Draft draft = drafts.get(position);
+        holder.draft = draft; // Set first, so the listeners below write to the new draft
+        holder.nameField.setText(draft.name);
+        holder.quantityField.setText(draft.quantity);
+        holder.categorySpinner.setSelection(Math.max(categoryAdapter.getPosition(draft.category), 0), false);
+    }
+
+    @Override
+    public int getItemCount() {
+        return drafts.size();
+    }
+
+    /**
+     * Removes the row a view holder is showing.
+     */
+    private void removeRow(ViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        Draft removed = drafts.remove(position);
+        notifyItemRemoved(position);
+        removedListener.onRowRemoved(removed);
+    }
+
+    /**
+     * ViewHolder for an ingredient row. Its listeners are attached once and
+     * write into whichever draft the row is currently bound to.
+     */
+    public class ViewHolder extends RecyclerView.ViewHolder {
+        final EditText nameField;
+        final EditText quantityField;
+        final Spinner categorySpinner;
+        Draft draft;
+
+        public ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            nameField = itemView.findViewById(R.id.ingredient_name);
+            quantityField = itemView.findViewById(R.id.ingredient_quantity);
+            categorySpinner = itemView.findViewById(R.id.ingredient_category);
+            ImageButton deleteButton = itemView.findViewById(R.id.delete_ingredient_button);
+
+            categorySpinner.setAdapter(categoryAdapter);
+            nameField.addTextChangedListener(new DraftWatcher() {
+                @Override
+                public void afterTextChanged(Editable s) {
+                    if (draft != null) draft.name = s.toString().trim();
+                }
+            });
+            quantityField.addTextChangedListener(new DraftWatcher() {
+                @Override
+                public void afterTextChanged(Editable s) {
+                    if (draft != null) draft.quantity = s.toString().trim();
+                }
+            });
+            categorySpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+                @Override
+                public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                    if (draft != null) draft.category = categoryAdapter.getItem(position).toString();
+                }
+
+                @Override
+                public void onNothingSelected(AdapterView<?> parent) {
+                }
+            });
+            deleteButton.setOnClickListener(v -> removeRow(this));
+        }
+    }
+
+    /**
+     * TextWatcher that only needs afterTextChanged.
+     */
+    private abstract static class DraftWatcher implements TextWatcher {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+    }
+}
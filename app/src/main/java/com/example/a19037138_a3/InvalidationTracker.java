@@ -0,0 +1,192 @@
+package com.example.a19037138_a3;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks which tables and keys each database write touches and tells the registered
+ * observers whose inputs were invalidated. Changes reported during one frame are
+ * coalesced and dispatched together on the main thread at the next frame.
+ */
+public class InvalidationTracker {
+
+    public static final String TABLE_MEALS = "meals";             // Keyed by meal date
+    public static final String TABLE_INGREDIENTS = "ingredients"; // Keyed by category
+
+    /**
+     * Receives invalidations on the main thread.
+     */
+    public interface Observer {
+        /**
+         * Returns whether a change to a table and key affects this observer.
+         *
+         * @param table The table that changed.
+         * @param key   The key that changed, or null if any row may have changed.
+         * @return True if the observer must be invalidated.
+         */
+        boolean isAffectedBy(String table, String key);
+
+        /**
+         * Called once per frame in which at least one affecting change was reported.
+         */
+        void onInvalidated();
+    }
+
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Changes reported since the last dispatch; a null key set means the whole table
+    private final Map<String, Set<String>> pendingChanges = new HashMap<>();
+    private final Map<String, Integer> tableVersions = new HashMap<>(); // Bumped on every change
+    private boolean frameScheduled;
+
+    // Changes reported by a thread while it holds them back, or null while it doesn't
+    private final ThreadLocal<List<String[]>> heldChanges = new ThreadLocal<>();
+
+    private final Choreographer.FrameCallback dispatchCallback = frameTimeNanos -> dispatchChanges();
+
+    /**
+     * Registers an observer. Safe to call from any thread.
+     *
+     * @param observer The observer to register.
+     */
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * Unregisters an observer. Safe to call from any thread.
+     *
+     * @param observer The observer to remove.
+     */
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Reports that rows of a table changed. Call after the write has been committed.
+     * Safe to call from any thread.
+     *
+     * @param table The table that changed.
+     * @param key   The key of the changed rows, or null if it is unknown or many keys changed.
+     */
+    public void notifyChanged(String table, String key) {
+        List<String[]> held = heldChanges.get();
+        if (held != null) {
+            held.add(new String[]{table, key});
+            return;
+        }
+        synchronized (pendingChanges) {
+            tableVersions.put(table, getVersion(table) + 1);
+            if (pendingChanges.containsKey(table)) {
+                Set<String> keys = pendingChanges.get(table);
+                if (keys != null) {
+                    if (key == null) {
+                        pendingChanges.put(table, null);
+                    } else {
+                        keys.add(key);
+                    }
+                }
+            } else {
+                Set<String> keys = null;
+                if (key != null) {
+                    keys = new HashSet<>();
+                    keys.add(key);
+                }
+                pendingChanges.put(table, keys);
+            }
+
+            if (!frameScheduled) {
+                frameScheduled = true;
+                mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(dispatchCallback));
+            }
+        }
+    }
+
+    /**
+     * Holds back the changes reported by the calling thread until {@link #releaseChanges()},
+     * so writes inside an open transaction aren't seen by observers before the commit.
+     */
+    public void holdChanges() {
+        if (heldChanges.get() == null) {
+            heldChanges.set(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Reports every change the calling thread held back and stops holding them.
+     */
+    public void releaseChanges() {
+        List<String[]> held = heldChanges.get();
+        heldChanges.remove();
+        if (held != null) {
+            for (String[] change : held) {
+                notifyChanged(change[0], change[1]);
+            }
+        }
+    }
+
+    /**
+     * Returns a counter that changes whenever the table changes, so observers that were
+     * unregistered while inactive can tell whether they missed anything.
+     *
+     * @param table The table to check.
+     * @return The table's current version.
+     */
+    public int getVersion(String table) {
+        synchronized (pendingChanges) {
+            Integer version = tableVersions.get(table);
+            return version != null ? version : 0;
+        }
+    }
+
+    /**
+     * Dispatches the changes gathered during the last frame to every affected observer.
+     */
+    private void dispatchChanges() {
+        Map<String, Set<String>> changes;
+        synchronized (pendingChanges) {
+            changes = new HashMap<>(pendingChanges);
+            pendingChanges.clear();
+            frameScheduled = false;
+        }
+
+        List<Observer> affected = new ArrayList<>();
+        for (Observer observer : observers) {
+            if (isAffected(observer, changes)) {
+                affected.add(observer);
+            }
+        }
+        for (Observer observer : affected) {
+            observer.onInvalidated();
+        }
+    }
+
+    /**
+     * Returns whether any of the changes affects an observer.
+     */
+    private static boolean isAffected(Observer observer, Map<String, Set<String>> changes) {
+        for (Map.Entry<String, Set<String>> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                if (observer.isAffectedBy(change.getKey(), null)) {
+                    return true;
+                }
+                continue;
+            }
+            for (String key : change.getValue()) {
+                if (observer.isAffectedBy(change.getKey(), key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -2,19 +2,41 @@ package com.example.a19037138_a3;
 
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.PopupMenu;
 
 /**
  * Main activity that serves as the entry point of the app.
  * Handles navigation to other activities and performs initial setup.
+ * Startup work is split into three phases: only the layout is built before the first frame;
+ * the database is opened in the background after it; old meals are pruned by a daily job.
  */
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity"; // Log tag for debugging
+    private static final int REQUEST_IMPORT_FILE = 1;  // Request code of the import file picker
+    private static final int REQUEST_EXPORT_FILE = 2;  // Request code of the export file picker
+    private static final String STATE_EXPORT_FORMAT = "export_format";
+
+    private int exportFormat = MealExporter.FORMAT_CSV; // Format chosen for the export in progress
+
+    // Deferred startup runs once per process, not every time this screen is recreated
+    private static boolean startupCompleted;
+
     /**
      * Called when the activity is first created.
-     * Locks orientation, deletes old meals, and sets up buttons with click listeners.
+     * Locks orientation and sets up buttons with click listeners; nothing here touches the disk.
+     * Everything else waits until the first frame has been drawn.
      *
      * @param savedInstanceState If the activity is being reinitialized after previously being shut down,
      *                           this Bundle contains the data it most recently supplied.
@@ -22,6 +44,7 @@ public class MainActivity extends AppCompatActivity {
     @SuppressWarnings("SourceLockedOrientationActivity")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createStart = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
 
         if (!isInMultiWindowMode() && !isInPictureInPictureMode()) {
@@ -29,8 +52,7 @@ public class MainActivity extends AppCompatActivity {
         }
         setContentView(R.layout.activity_main);
 
-        DatabaseHelper db = DatabaseHelper.getInstance(this);
-        db.deleteOldMeals();
+        DatabaseHelper.acquire(this);  // Only counts the borrower; the database opens on first use
 
         Button addMealButton = findViewById(R.id.button_add_meal);
         Button weekButton = findViewById(R.id.button_week);
@@ -39,6 +61,50 @@ public class MainActivity extends AppCompatActivity {
         addMealButton.setOnClickListener(v -> openAddMeal());
         weekButton.setOnClickListener(v -> openWeekView());
         shoppingListButton.setOnClickListener(v -> openShoppingList());
+        findViewById(R.id.button_import).setOnClickListener(v -> pickImportFile());
+        findViewById(R.id.button_export).setOnClickListener(this::showExportMenu);
+        if (savedInstanceState != null) {
+            exportFormat = savedInstanceState.getInt(STATE_EXPORT_FORMAT, MealExporter.FORMAT_CSV);
+        }
+
+        if (!startupCompleted) {
+            runAfterFirstFrame(() -> onFirstFrameDrawn(createStart));
+        }
+    }
+
+    /**
+     * Runs an action once the first frame of this screen has been drawn.
+     */
+    private void runAfterFirstFrame(Runnable action) {
+        View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                content.post(action);  // Queued behind the draw that is about to happen
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Reports startup timing, then starts the deferred and background startup work.
+     *
+     * @param createStart Uptime at which onCreate started.
+     */
+    private void onFirstFrameDrawn(long createStart) {
+        long now = SystemClock.uptimeMillis();
+        Log.i(TAG, "Startup: first frame " + (now - Process.getStartUptimeMillis()) + " ms after process start, "
+                + (now - createStart) + " ms after onCreate");
+        reportFullyDrawn();
+        startupCompleted = true;
+
+        long deferredStart = SystemClock.uptimeMillis();
+        MealRepository repository = MealRepository.getInstance(this);
+        repository.warmUp();                    // Opens the database and runs migrations off the UI thread
+        repository.pruneOldMealsIfDue(null);    // Catches up if the daily job has not run today
+        MealPruneJobService.schedule(this);
+        Log.i(TAG, "Startup: deferred work queued in " + (SystemClock.uptimeMillis() - deferredStart) + " ms");
     }
 
     /**
@@ -62,13 +128,108 @@ public class MainActivity extends AppCompatActivity {
         startActivity(new Intent(this, ShoppingListActivity.class));
     }
 
+    /**
+     * Lets the user pick a CSV or JSON meal plan to import.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{"text/csv", "text/comma-separated-values",
+                "application/json", "text/plain"});
+        startActivityForResult(intent, REQUEST_IMPORT_FILE);
+    }
+
+    /**
+     * Lets the user choose the export format, then where to save the file.
+     */
+    private void showExportMenu(View anchor) {
+        PopupMenu popupMenu = new PopupMenu(this, anchor);
+        popupMenu.getMenu().add(0, MealExporter.FORMAT_CSV, 0, R.string.export_as_csv);
+        popupMenu.getMenu().add(0, MealExporter.FORMAT_JSON, 1, R.string.export_as_json);
+        popupMenu.setOnMenuItemClickListener(item -> {
+            exportFormat = item.getItemId();
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("application/gzip");
+            intent.putExtra(Intent.EXTRA_TITLE,
+                    exportFormat == MealExporter.FORMAT_JSON ? "meal-plan.json.gz" : "meal-plan.csv.gz");
+            startActivityForResult(intent, REQUEST_EXPORT_FILE);
+            return true;
+        });
+        popupMenu.show();
+    }
+
+    /**
+     * Keeps the chosen export format while the file picker is open.
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_EXPORT_FORMAT, exportFormat);
+    }
+
+    /**
+     * Starts importing or exporting the picked file in the background.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_EXPORT_FILE) {
+            MealRepository.getInstance(this).exportMealPlan(data.getData(), exportFormat, meals -> {
+                if (meals < 0) {
+                    Toast.makeText(this, R.string.export_failed, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this, getString(R.string.export_finished, meals), Toast.LENGTH_SHORT).show();
+                }
+            });
+            return;
+        }
+        if (requestCode != REQUEST_IMPORT_FILE) {
+            return;
+        }
+        Uri uri = data.getData();
+        TextView status = findViewById(R.id.import_status);
+        status.setVisibility(View.VISIBLE);
+        status.setText(getString(R.string.import_progress, 0, 0, 0.0));
+        MealRepository.getInstance(this).importMeals(uri, progress -> {
+            if (!isDestroyed()) {
+                status.setText(describeImport(progress));
+            }
+        });
+    }
+
+    /**
+     * Describes an import's progress or outcome for the status line.
+     */
+    private String describeImport(MealImporter.Progress progress) {
+        if (progress.error != null) {
+            int message = progress.totalBytes >= 0 ? R.string.import_failed : R.string.import_failed_no_resume;
+            return getString(message, progress.mealsImported, progress.error);
+        }
+        if (progress.finished) {
+            return getString(R.string.import_finished, progress.mealsImported, progress.ingredientsImported,
+                    progress.elapsedMs / 1000f, progress.recordsSkipped);
+        }
+        float fraction = progress.getFraction();
+        if (fraction < 0) {
+            return getString(R.string.import_progress, progress.mealsImported, progress.ingredientsImported,
+                    progress.getMealsPerSecond());
+        }
+        return getString(R.string.import_progress_percent, Math.round(fraction * 100), progress.mealsImported,
+                progress.ingredientsImported, progress.getMealsPerSecond());
+    }
+
     /**
      * Called when the activity is destroyed.
-     * Closes the database to release resources.
+     * Returns the shared database; it stays open for the other screens.
      */
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        DatabaseHelper.closeDatabase();
+        DatabaseHelper.release();
     }
 }
@@ -3,6 +3,7 @@ package com.example.a19037138_a3;
 /**
  * Represents a meal with an ID, name, type, and date.
  * Provides methods to access the meal's attributes.
+ * A meal may also be one occurrence of a recurring meal, which is not stored as its own row.
  */
 public class Meal {
 
@@ -10,6 +11,7 @@ public class Meal {
     private final String name;
     private final String type;
     private final String date;
+    private final long recurrenceId; // The rule this occurrence comes from, or 0 for a stored meal
 
     /**
      * Initializes a new Meal object with the given details.
@@ -20,10 +22,25 @@ public class Meal {
      * @param date  The date associated with the meal.
      */
     public Meal(long id, String name, String type, String date) {
+        this(id, name, type, date, 0);
+    }
+
+    /**
+     * Initializes a meal that may be an occurrence of a recurring meal.
+     * Occurrences use the negated rule ID as their ID, so they never clash with stored meals.
+     *
+     * @param id           The unique ID of the meal.
+     * @param name         The name of the meal.
+     * @param type         The type of the meal (e.g., Breakfast, Lunch).
+     * @param date         The date associated with the meal.
+     * @param recurrenceId The ID of the recurrence rule, or 0 for a stored meal.
+     */
+    public Meal(long id, String name, String type, String date, long recurrenceId) {
         this.id = id;
         this.name = name;
         this.type = type;
         this.date = date;
+        this.recurrenceId = recurrenceId;
     }
 
     /**
@@ -48,7 +65,6 @@ public class Meal {
      * Retrieves the type of the meal (e.g., Breakfast, Lunch).
      *
      * @return The type of the meal.
-     * @noinspection unused
      */
     public String getType() {
         return type;
@@ -58,9 +74,26 @@ public class Meal {
      * Retrieves the date associated with the meal.
      *
      * @return The date of the meal.
-     * @noinspection unused
      */
     public String getDate() {
         return date;
     }
+
+    /**
+     * Retrieves the recurrence rule this meal is an occurrence of.
+     *
+     * @return The rule ID, or 0 for a stored meal.
+     */
+    public long getRecurrenceId() {
+        return recurrenceId;
+    }
+
+    /**
+     * Checks whether this meal is an occurrence of a recurring meal.
+     *
+     * @return True for an occurrence, false for a stored meal.
+     */
+    public boolean isRecurring() {
+        return recurrenceId != 0;
+    }
 }
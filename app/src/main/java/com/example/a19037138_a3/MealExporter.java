@@ -0,0 +1,197 @@
+package com.example.a19037138_a3;
+
+import android.database.Cursor;
+import android.util.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the meal plan or the shopping list from database cursors straight into CSV or JSON.
+ * Rows are written as the cursor moves, so no list of meals or ingredients is built and memory
+ * use stays constant however much history is exported.
+ * The meal-plan formats are the ones MealImporter reads, so an export can be imported again.
+ */
+public class MealExporter {
+
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+
+    private static final String MEAL_PLAN_CSV_HEADER = "date,type,meal,ingredient,category,quantity";
+    private static final String SHOPPING_LIST_CSV_HEADER = "ingredient,category,quantity";
+
+    private final DatabaseHelper db;
+
+    /**
+     * Creates an exporter reading from the given database.
+     */
+    public MealExporter(DatabaseHelper db) {
+        this.db = db;
+    }
+
+    /**
+     * Writes every archived and planned meal with its ingredients, oldest first.
+     * The stream is flushed but not closed.
+     *
+     * @param out    Where to write; wrap it in a GZIPOutputStream for a compressed file.
+     * @param format FORMAT_CSV or FORMAT_JSON.
+     * @return The number of meals written.
+     */
+    public int exportMealPlan(OutputStream out, int format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int meals = 0;
+        if (format == FORMAT_JSON) {
+            JsonWriter json = new JsonWriter(writer);
+            json.beginArray();
+            try (Cursor cursor = db.openMealPlanCursor(true)) {
+                meals += writeMealsJson(cursor, json);
+            }
+            try (Cursor cursor = db.openMealPlanCursor(false)) {
+                meals += writeMealsJson(cursor, json);
+            }
+            json.endArray();
+            json.flush();
+        } else {
+            writer.write(MEAL_PLAN_CSV_HEADER);
+            writer.write('\n');
+            try (Cursor cursor = db.openMealPlanCursor(true)) {
+                meals += writeMealsCsv(cursor, writer);
+            }
+            try (Cursor cursor = db.openMealPlanCursor(false)) {
+                meals += writeMealsCsv(cursor, writer);
+            }
+            writer.flush();
+        }
+        return meals;
+    }
+
+    /**
+     * Writes the consolidated shopping list, one row per item, grouped by category.
+     * The stream is flushed but not closed.
+     *
+     * @param out    Where to write.
+     * @param format FORMAT_CSV or FORMAT_JSON.
+     * @return The number of items written.
+     */
+    public int exportShoppingList(OutputStream out, int format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int items = 0;
+        try (Cursor cursor = db.openShoppingListCursor()) {
+            if (format == FORMAT_JSON) {
+                JsonWriter json = new JsonWriter(writer);
+                json.beginArray();
+                while (cursor.moveToNext()) {
+                    json.beginObject();
+                    json.name("name").value(cursor.getString(0));
+                    json.name("category").value(cursor.getString(1));
+                    json.name("quantity").value(cursor.getLong(2));
+                    json.endObject();
+                    items++;
+                }
+                json.endArray();
+                json.flush();
+            } else {
+                writer.write(SHOPPING_LIST_CSV_HEADER);
+                writer.write('\n');
+                while (cursor.moveToNext()) {
+                    writeCsvRow(writer, cursor.getString(0), cursor.getString(1), cursor.getString(2));
+                    items++;
+                }
+                writer.flush();
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Writes meal-plan rows as CSV, one row per ingredient and one for a meal without any.
+     *
+     * @return The number of meals written.
+     */
+    private static int writeMealsCsv(Cursor cursor, Writer writer) throws IOException {
+        int meals = 0;
+        long lastMealId = Long.MIN_VALUE;
+        while (cursor.moveToNext()) {
+            long mealId = cursor.getLong(DatabaseHelper.EXPORT_MEAL_ID);
+            String date = cursor.getString(DatabaseHelper.EXPORT_DATE);
+            if (mealId != lastMealId) {
+                meals++;
+                lastMealId = mealId;
+            }
+            writeCsvRow(writer,
+                    date,
+                    cursor.getString(DatabaseHelper.EXPORT_TYPE),
+                    cursor.getString(DatabaseHelper.EXPORT_MEAL_NAME),
+                    cursor.getString(DatabaseHelper.EXPORT_INGREDIENT_NAME),
+                    cursor.getString(DatabaseHelper.EXPORT_CATEGORY),
+                    cursor.getString(DatabaseHelper.EXPORT_QUANTITY));
+        }
+        return meals;
+    }
+
+    /**
+     * Writes meal-plan rows as JSON meal objects, closing each one when the cursor reaches the next meal.
+     *
+     * @return The number of meals written.
+     */
+    private static int writeMealsJson(Cursor cursor, JsonWriter json) throws IOException {
+        int meals = 0;
+        long lastMealId = Long.MIN_VALUE;
+        while (cursor.moveToNext()) {
+            long mealId = cursor.getLong(DatabaseHelper.EXPORT_MEAL_ID);
+            String date = cursor.getString(DatabaseHelper.EXPORT_DATE);
+            if (mealId != lastMealId) {
+                if (meals > 0) {
+                    json.endArray();
+                    json.endObject();
+                }
+                json.beginObject();
+                json.name("date").value(date);
+                json.name("type").value(cursor.getString(DatabaseHelper.EXPORT_TYPE));
+                json.name("name").value(cursor.getString(DatabaseHelper.EXPORT_MEAL_NAME));
+                json.name("ingredients").beginArray();
+                meals++;
+                lastMealId = mealId;
+            }
+            if (!cursor.isNull(DatabaseHelper.EXPORT_INGREDIENT_NAME)) {
+                json.beginObject();
+                json.name("name").value(cursor.getString(DatabaseHelper.EXPORT_INGREDIENT_NAME));
+                json.name("category").value(cursor.getString(DatabaseHelper.EXPORT_CATEGORY));
+                json.name("quantity").value(cursor.getLong(DatabaseHelper.EXPORT_QUANTITY));
+                json.endObject();
+            }
+        }
+        if (meals > 0) {
+            json.endArray();
+            json.endObject();
+        }
+        return meals;
+    }
+
+    /**
+     * Writes one CSV row, quoting fields that contain commas, quotes or line breaks.
+     */
+    private static void writeCsvRow(Writer writer, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+                    || field.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,615 @@
+package com.example.a19037138_a3;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming importer for meal-plan files in CSV or JSON.
+ * Records are read one meal at a time, validated, and written in large batches, so memory
+ * use does not grow with the file. Each batch commits together with a checkpoint of how
+ * many records the file has had consumed, so an interrupted import of the same file
+ * resumes after the last committed batch instead of starting over. Files whose size the
+ * provider does not report are imported without checkpoints, since a replaced file could
+ * not be told apart from the one that was interrupted.
+ *
+ * <p>CSV files have the header {@code date,type,meal,ingredient,category,quantity} and one
+ * row per ingredient; consecutive rows with the same date, type and meal form one meal.
+ * JSON files hold an array of {@code {"date", "type", "name", "ingredients": [{"name",
+ * "category", "quantity"}]}} objects. Either may be gzip-compressed, as MealExporter writes them.
+ */
+public class MealImporter {
+
+    private static final String TAG = "MealImporter"; // Log tag for debugging
+
+    private static final int BATCH_MEALS = 500;         // Meals per transaction
+    private static final int BATCH_INGREDIENTS = 5000;  // Ingredient rows per transaction
+
+    private static final String[] MEAL_TYPES = {"Breakfast", "Lunch", "Dinner"};
+    private static final String[] CATEGORIES = {"Vegetables", "Meat", "Other"};
+
+    /**
+     * A validated meal waiting to be written.
+     */
+    static final class ImportedMeal {
+        final String name;
+        final String type;
+        final String date;
+        final List<Ingredient> ingredients = new ArrayList<>();
+
+        ImportedMeal(String name, String type, String date) {
+            this.name = name;
+            this.type = type;
+            this.date = date;
+        }
+    }
+
+    /**
+     * A snapshot of how far an import has got.
+     */
+    public static final class Progress {
+        public final int mealsImported;       // Meals written in this run
+        public final int ingredientsImported; // Ingredient rows written in this run
+        public final int recordsSkipped;      // Invalid records left out
+        public final long recordsResumed;     // Records already imported by an earlier, interrupted run
+        public final long bytesRead;
+        public final long totalBytes;         // -1 if the size is unknown
+        public final long elapsedMs;
+        public final boolean finished;
+        public final String error;            // Why the import stopped early, or null
+
+        Progress(int mealsImported, int ingredientsImported, int recordsSkipped, long recordsResumed,
+                 long bytesRead, long totalBytes, long elapsedMs, boolean finished, String error) {
+            this.mealsImported = mealsImported;
+            this.ingredientsImported = ingredientsImported;
+            this.recordsSkipped = recordsSkipped;
+            this.recordsResumed = recordsResumed;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.elapsedMs = elapsedMs;
+            this.finished = finished;
+            this.error = error;
+        }
+
+        /**
+         * Returns the final progress of an import that failed before it could report its own.
+         */
+        static Progress failed(String error) {
+            return new Progress(0, 0, 0, 0, 0, -1, 0, true, error);
+        }
+
+        /**
+         * Returns the fraction of the file read so far, or -1 if the size is unknown.
+         */
+        public float getFraction() {
+            return totalBytes > 0 ? Math.min(1f, (float) bytesRead / totalBytes) : -1f;
+        }
+
+        /**
+         * Returns the number of meals written per second in this run.
+         */
+        public double getMealsPerSecond() {
+            return elapsedMs > 0 ? mealsImported * 1000.0 / elapsedMs : 0;
+        }
+    }
+
+    /**
+     * Receives progress after every committed batch and once when the import ends.
+     */
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * Reads the next meal from a file, or returns null at the end.
+     */
+    private interface RecordReader {
+        ImportedMeal next() throws IOException;
+    }
+
+    /**
+     * Thrown for a record that fails validation; the record is skipped.
+     */
+    private static final class InvalidRecordException extends Exception {
+        InvalidRecordException(String message) {
+            super(message);
+        }
+    }
+
+    private final DatabaseHelper db;
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    private volatile boolean cancelled;
+
+    private CountingInputStream input;
+    private int recordsSkipped;
+
+    /**
+     * Creates an importer for one file.
+     *
+     * @param db       The database to import into.
+     * @param resolver Resolver used to open the file.
+     * @param uri      The file, from the system file picker or local storage.
+     */
+    public MealImporter(DatabaseHelper db, ContentResolver resolver, Uri uri) {
+        this.db = db;
+        this.resolver = resolver;
+        this.uri = uri;
+        dateFormat.setLenient(false);
+    }
+
+    /**
+     * Stops the import after the batch in progress; a later import of the same file resumes from there.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Runs the import on the calling thread, which must not be the main thread.
+     *
+     * @param listener Told about progress after every batch and at the end; called on this thread.
+     * @return The final progress.
+     */
+    public Progress run(ProgressListener listener) {
+        long start = SystemClock.uptimeMillis();
+        long totalBytes = getFileSize();
+        // A changed file does not resume from an old checkpoint. Without a size there is nothing to
+        // tell a replaced file from the same one, so such a file is neither checkpointed nor resumed.
+        String source = totalBytes >= 0 ? uri + "#" + totalBytes : null;
+
+        long resumed = 0;
+        int meals = 0;
+        int ingredients = 0;
+        String error = null;
+        try (InputStream stream = resolver.openInputStream(uri)) {
+            resumed = source != null ? db.getImportCheckpoint(source) : 0;
+            if (stream == null) {
+                throw new FileNotFoundException(uri.toString());
+            }
+            input = new CountingInputStream(stream);
+            RecordReader reader = openReader(decompressIfNeeded(input));
+
+            long recordsDone = 0;
+            while (recordsDone < resumed && reader.next() != null) {
+                recordsDone++;  // Already written by an earlier run
+            }
+            recordsSkipped = 0;  // Skips before the checkpoint were reported by that run
+
+            List<ImportedMeal> batch = new ArrayList<>();
+            int batchIngredients = 0;
+            ImportedMeal meal;
+            while (!cancelled && (meal = reader.next()) != null) {
+                recordsDone++;
+                batch.add(meal);
+                batchIngredients += meal.ingredients.size();
+                if (batch.size() >= BATCH_MEALS || batchIngredients >= BATCH_INGREDIENTS) {
+                    db.importMeals(batch, source, recordsDone);
+                    meals += batch.size();
+                    ingredients += batchIngredients;
+                    batch.clear();
+                    batchIngredients = 0;
+                    listener.onProgress(new Progress(meals, ingredients, recordsSkipped, resumed,
+                            input.count, totalBytes, SystemClock.uptimeMillis() - start, false, null));
+                }
+            }
+            if (!batch.isEmpty()) {
+                db.importMeals(batch, source, recordsDone);
+                meals += batch.size();
+                ingredients += batchIngredients;
+            }
+            if (!cancelled && source != null) {
+                db.clearImportCheckpoint(source);
+            }
+        } catch (IOException | RuntimeException e) {  // Including a lost URI grant and database errors
+            Log.e(TAG, "Import stopped", e);
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+
+        long elapsed = SystemClock.uptimeMillis() - start;
+        Log.i(TAG, "Imported " + meals + " meals and " + ingredients + " ingredients in " + elapsed
+                + " ms, skipped " + recordsSkipped + " invalid records");
+        Progress progress = new Progress(meals, ingredients, recordsSkipped, resumed,
+                input != null ? input.count : 0, totalBytes, elapsed, true, error);
+        listener.onProgress(progress);
+        return progress;
+    }
+
+    /**
+     * Returns the size of the file in bytes, or -1 if it is unknown.
+     */
+    private long getFileSize() {
+        try (AssetFileDescriptor descriptor = resolver.openAssetFileDescriptor(uri, "r")) {
+            return descriptor != null ? descriptor.getLength() : -1;
+        } catch (IOException | SecurityException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Wraps the stream in a GZIPInputStream if it starts with the gzip magic number,
+     * so compressed exports can be imported as they are.
+     */
+    private static InputStream decompressIfNeeded(InputStream stream) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(stream);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        return first == 0x1f && second == 0x8b ? new GZIPInputStream(buffered) : buffered;
+    }
+
+    /**
+     * Picks the reader from the first significant character: JSON starts with '[', anything else is CSV.
+     */
+    private RecordReader openReader(InputStream stream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        reader.mark(64);
+        int c;
+        do {
+            c = reader.read();
+        } while (c == '\uFEFF' || Character.isWhitespace(c));
+        reader.reset();
+        return c == '[' ? jsonReader(reader) : csvReader(reader);
+    }
+
+    // --- JSON ---
+
+    /**
+     * Returns a reader over a JSON array of meals, parsed with a streaming JsonReader.
+     */
+    private RecordReader jsonReader(BufferedReader source) throws IOException {
+        JsonReader json = new JsonReader(source);
+        json.beginArray();
+        return () -> {
+            while (json.hasNext()) {
+                try {
+                    return readJsonMeal(json);
+                } catch (InvalidRecordException e) {
+                    skip(e);
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Reads and validates one meal object.
+     */
+    private ImportedMeal readJsonMeal(JsonReader json) throws IOException, InvalidRecordException {
+        String name = null;
+        String type = null;
+        String date = null;
+        List<String[]> ingredients = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "name":
+                    name = nextString(json);
+                    break;
+                case "type":
+                    type = nextString(json);
+                    break;
+                case "date":
+                    date = nextString(json);
+                    break;
+                case "ingredients":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        ingredients.add(readJsonIngredient(json));
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+                    break;
+            }
+        }
+        json.endObject();
+
+        ImportedMeal meal = validateMeal(name, type, date);
+        for (String[] ingredient : ingredients) {
+            meal.ingredients.add(validateIngredient(ingredient[0], ingredient[1], ingredient[2]));
+        }
+        return meal;
+    }
+
+    /**
+     * Reads one ingredient object as {name, category, quantity}.
+     */
+    private static String[] readJsonIngredient(JsonReader json) throws IOException {
+        String[] ingredient = new String[3];
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "name":
+                    ingredient[0] = nextString(json);
+                    break;
+                case "category":
+                    ingredient[1] = nextString(json);
+                    break;
+                case "quantity":
+                    ingredient[2] = nextString(json);
+                    break;
+                default:
+                    json.skipValue();
+                    break;
+            }
+        }
+        json.endObject();
+        return ingredient;
+    }
+
+    /**
+     * Reads a string or number as text, or null for a JSON null.
+     */
+    private static String nextString(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+
+    // --- CSV ---
+
+    /**
+     * Returns a reader over CSV rows, grouping consecutive rows of the same meal.
+     * Only the row after the current meal is held back between calls.
+     */
+    private RecordReader csvReader(BufferedReader source) throws IOException {
+        List<String> header = readCsvRow(source);
+        if (header == null || header.size() < 3 || !"date".equalsIgnoreCase(header.get(0).trim().replace("\uFEFF", ""))) {
+            throw new IOException("Not a meal-plan CSV file: the header must start with date,type,meal");
+        }
+        List<List<String>> lookahead = new ArrayList<>(1);
+        return () -> {
+            while (true) {
+                List<String> row = lookahead.isEmpty() ? readCsvRow(source) : lookahead.remove(0);
+                if (row == null) {
+                    return null;
+                }
+                if (row.size() == 1 && row.get(0).trim().isEmpty()) {
+                    continue;  // Blank line
+                }
+                try {
+                    ImportedMeal meal = validateMeal(field(row, 2), field(row, 1), field(row, 0));
+                    boolean valid = addCsvIngredient(meal, row);
+                    List<String> next;
+                    while ((next = readCsvRow(source)) != null && sameMeal(row, next)) {
+                        valid &= addCsvIngredient(meal, next);
+                    }
+                    if (next != null) {
+                        lookahead.add(next);
+                    }
+                    if (valid) {
+                        return meal;
+                    }
+                    skip(new InvalidRecordException("Invalid ingredient in meal " + meal.name + " on " + meal.date));
+                } catch (InvalidRecordException e) {
+                    skip(e);
+                    List<String> next;
+                    while ((next = readCsvRow(source)) != null && sameMeal(row, next)) {
+                        // Drop the rest of the invalid meal
+                    }
+                    if (next != null) {
+                        lookahead.add(next);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a row's ingredient to a meal, if the row has one.
+     *
+     * @return False if the row's ingredient is invalid.
+     */
+    private boolean addCsvIngredient(ImportedMeal meal, List<String> row) {
+        String name = field(row, 3);
+        if (name == null || name.trim().isEmpty()) {
+            return true;  // A meal without ingredients
+        }
+        try {
+            meal.ingredients.add(validateIngredient(name, field(row, 4), field(row, 5)));
+            return true;
+        } catch (InvalidRecordException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether two rows belong to the same meal.
+     */
+    private static boolean sameMeal(List<String> a, List<String> b) {
+        for (int i = 0; i < 3; i++) {
+            String x = field(a, i);
+            String y = field(b, i);
+            if (x == null ? y != null : !x.trim().equals(y == null ? null : y.trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a field of a row, or null if the row is too short.
+     */
+    private static String field(List<String> row, int index) {
+        return index < row.size() ? row.get(index) : null;
+    }
+
+    /**
+     * Reads one CSV row, honouring quoted fields with embedded commas, quotes and line breaks.
+     *
+     * @return The fields of the row, or null at the end of the file.
+     */
+    private static List<String> readCsvRow(BufferedReader reader) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (c != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // --- Validation ---
+
+    /**
+     * Validates a meal's fields and returns it with its type in canonical form.
+     */
+    private ImportedMeal validateMeal(String name, String type, String date) throws InvalidRecordException {
+        if (name == null || name.trim().isEmpty()) {
+            throw new InvalidRecordException("Meal without a name");
+        }
+        String canonicalType = canonical(MEAL_TYPES, type);
+        if (canonicalType == null) {
+            throw new InvalidRecordException("Unknown meal type: " + type);
+        }
+        if (date == null) {
+            throw new InvalidRecordException("Meal without a date");
+        }
+        try {
+            date = date.trim();
+            if (date.length() != 10) {
+                throw new ParseException(date, 0);
+            }
+            dateFormat.parse(date);
+        } catch (ParseException e) {
+            throw new InvalidRecordException("Invalid date: " + date);
+        }
+        return new ImportedMeal(name.trim(), canonicalType, date);
+    }
+
+    /**
+     * Validates an ingredient's fields; an empty quantity means 1, as in the add-meal form.
+     */
+    private static Ingredient validateIngredient(String name, String category, String quantity)
+            throws InvalidRecordException {
+        if (name == null || name.trim().isEmpty()) {
+            throw new InvalidRecordException("Ingredient without a name");
+        }
+        String canonicalCategory = canonical(CATEGORIES, category);
+        if (canonicalCategory == null) {
+            throw new InvalidRecordException("Unknown category: " + category);
+        }
+        int amount = 1;
+        if (quantity != null && !quantity.trim().isEmpty()) {
+            try {
+                amount = Integer.parseInt(quantity.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidRecordException("Invalid quantity: " + quantity);
+            }
+            if (amount <= 0) {
+                throw new InvalidRecordException("Invalid quantity: " + quantity);
+            }
+        }
+        return new Ingredient(0, name.trim(), canonicalCategory, amount);
+    }
+
+    /**
+     * Returns the allowed value matching a field regardless of case, or null if none does.
+     */
+    private static String canonical(String[] allowed, String value) {
+        if (value == null) {
+            return null;
+        }
+        for (String candidate : allowed) {
+            if (candidate.equalsIgnoreCase(value.trim())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts and logs a skipped record.
+     */
+    private void skip(InvalidRecordException e) {
+        recordsSkipped++;
+        Log.w(TAG, "Skipping record: " + e.getMessage());
+    }
+
+    /**
+     * Input stream that counts the bytes read through it, for progress.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.a19037138_a3;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily background job that moves meals dated before today out of the live tables into the meal history.
+ * The work itself runs on the repository's write thread; the job only keeps the
+ * process alive until it has finished.
+ */
+public class MealPruneJobService extends JobService {
+
+    private static final int JOB_ID = 1001; // Unique within the app
+
+    /**
+     * Schedules the daily job unless it is already scheduled.
+     *
+     * @param context Any context; the application context is used.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context.getApplicationContext(), MealPruneJobService.class))
+                .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                .build());
+    }
+
+    /**
+     * Starts pruning in the background and keeps the job running until it completes.
+     */
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        MealRepository.getInstance(this).pruneOldMealsIfDue(succeeded -> jobFinished(params, !succeeded));
+        return true;
+    }
+
+    /**
+     * Lets the pruning finish on its own; a pass that was cut short simply runs again next time.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,656 @@
+package com.example.a19037138_a3;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import androidx.core.content.FileProvider;
+import androidx.lifecycle.LiveData;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Repository between the UI and DatabaseHelper.
+ * Runs every database call on a background executor and delivers results on the main thread.
+ * Writes run one at a time in submission order; reads run on a small bounded pool.
+ * Shopping-list quantity changes go through a write-behind queue and are written in batches.
+ */
+public class MealRepository {
+
+    private static final String TAG = "MealRepository"; // Log tag for debugging
+
+    private static final int READ_THREADS = 2;
+
+    private static final String PREFS_NAME = "app_prefs";
+    private static final String EXPORT_DIRECTORY = "exports"; // Under the cache; shared through FileProvider
+    private static final String KEY_LAST_PRUNED_DATE = "last_pruned_date"; // yyyy-MM-dd of the last prune
+
+    private static MealRepository instance;
+
+    private final Context appContext;
+    private final DatabaseHelper db;
+    private final InvalidationTracker invalidationTracker;
+    private final ExecutorService readExecutor;
+    private final ExecutorService writeExecutor;
+    private final ExecutorService exportExecutor; // Long exports stay out of the read pool
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final WriteBehindQueue shoppingListWrites;
+
+    /**
+     * Receives the result of a background database call on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Handle to a submitted database call. Once cancelled, its callback is never delivered.
+     */
+    public static final class Request {
+        private volatile boolean cancelled;
+        private Future<?> future;
+
+        /**
+         * Cancels the call, dropping it if it has not started yet.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * Returns whether the call has been cancelled.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Private constructor to enforce the singleton pattern.
+     */
+    private MealRepository(Context context) {
+        appContext = context.getApplicationContext();
+        db = DatabaseHelper.getInstance(context);
+        invalidationTracker = db.getInvalidationTracker();
+
+        // Every queued read is answered; observable queries cancel their own superseded runs,
+        // so the queue holds at most one run per query plus the one-shot reads
+        readExecutor = new ThreadPoolExecutor(READ_THREADS, READ_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DatabaseThreadFactory("db-read"));
+        writeExecutor = Executors.newSingleThreadExecutor(new DatabaseThreadFactory("db-write"));
+        exportExecutor = Executors.newSingleThreadExecutor(new DatabaseThreadFactory("db-export"));
+        shoppingListWrites = new WriteBehindQueue(db, writeExecutor, mainHandler);
+
+        // Android gives no reliable shutdown callback, so queued writes are flushed once the
+        // app is no longer visible, which is the last point before the process may be killed
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                    flushPendingWrites();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                flushPendingWrites();
+            }
+        });
+    }
+
+    /**
+     * Returns the singleton instance of MealRepository.
+     */
+    public static synchronized MealRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new MealRepository(context);
+        }
+        return instance;
+    }
+
+    // --- Meals ---
+
+    /**
+     * Observes every meal between two dates, grouped by date and meal type.
+     * The query re-runs only when a meal dated inside the range changes.
+     */
+    public LiveData<Map<String, Map<String, List<Meal>>>> observeMealsInRange(String startDate, String endDate) {
+        return new ObservableQuery<>(InvalidationTracker.TABLE_MEALS,
+                date -> date.compareTo(startDate) >= 0 && date.compareTo(endDate) <= 0,
+                () -> db.getMealsInRange(startDate, endDate));
+    }
+
+    /**
+     * Adds a meal with its ingredients and returns the new meal ID, or -1 on failure.
+     */
+    public Request addMeal(String name, String type, String date, List<Ingredient> ingredients,
+                           Callback<Long> callback) {
+        return submit(writeExecutor, () -> db.addMeal(name, type, date, ingredients), -1L, callback);
+    }
+
+    /**
+     * Deletes a meal and its ingredients.
+     */
+    public Request deleteMeal(long mealId, Callback<Boolean> onComplete) {
+        return submitWrite(() -> db.deleteMeal(mealId), onComplete);
+    }
+
+    /**
+     * Adds a recurring meal, stored once as a rule, and returns its rule ID, or -1 on failure.
+     *
+     * @param endDate    The last date it may occur on, or null to repeat until deleted.
+     * @param daysOfWeek The days it occurs on, one bit per day with Sunday as bit 0.
+     */
+    public Request addRecurringMeal(String name, String type, String startDate, String endDate, int daysOfWeek,
+                                    List<Ingredient> ingredients, Callback<Long> callback) {
+        return submit(writeExecutor, () -> {
+            try {
+                return db.addRecurringMeal(name, type, startDate, endDate, daysOfWeek, ingredients);
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to add recurring meal " + name, e);
+                return -1L;
+            }
+        }, -1L, callback);
+    }
+
+    /**
+     * Deletes a recurring meal; meals that replaced its occurrences are kept.
+     */
+    public Request deleteRecurringMeal(long ruleId, Callback<Boolean> onComplete) {
+        return submitWrite(() -> db.deleteRecurringMeal(ruleId), onComplete);
+    }
+
+    /**
+     * Leaves out one occurrence of a recurring meal.
+     */
+    public Request skipOccurrence(long ruleId, String date, Callback<Boolean> onComplete) {
+        return submitWrite(() -> db.skipOccurrence(ruleId, date), onComplete);
+    }
+
+    /**
+     * Replaces one occurrence of a recurring meal with a stored meal and returns its ID, or -1 on failure.
+     */
+    public Request overrideOccurrence(long ruleId, String date, Callback<Long> callback) {
+        return submit(writeExecutor, () -> {
+            try {
+                return db.overrideOccurrence(ruleId, date);
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to override recurring meal " + ruleId + " on " + date, e);
+                return -1L;
+            }
+        }, -1L, callback);
+    }
+
+    /**
+     * Moves meals dated before today into the meal history, unless that has already been done today.
+     * The last prune date is kept in shared preferences, read and written on the write thread.
+     *
+     * @param onComplete Told whether pruning succeeded or was not due, or null.
+     */
+    public Request pruneOldMealsIfDue(Callback<Boolean> onComplete) {
+        return submitWrite(() -> {
+            String today = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(Calendar.getInstance().getTime());
+            SharedPreferences prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            if (today.equals(prefs.getString(KEY_LAST_PRUNED_DATE, null))) {
+                return;
+            }
+            db.archiveOldMeals();
+            prefs.edit().putString(KEY_LAST_PRUNED_DATE, today).commit();
+        }, onComplete);
+    }
+
+    /**
+     * Opens the database on a background thread, running any pending migrations,
+     * so the first screen that reads from it does not pay for the open.
+     */
+    public void warmUp() {
+        submit(writeExecutor, () -> db.getWritableDatabase() != null, false, null);
+    }
+
+    /**
+     * Imports a meal-plan file in the background, resuming where an interrupted import of the
+     * same file stopped. Progress is delivered on the main thread after every batch.
+     * The import runs on the write thread, so other writes wait for it to finish.
+     *
+     * @param uri      The CSV or JSON file to import.
+     * @param listener Told about progress, and finally with the finished flag set, even if the import fails.
+     * @return The importer, which can be cancelled.
+     */
+    public MealImporter importMeals(Uri uri, MealImporter.ProgressListener listener) {
+        MealImporter importer = new MealImporter(db, appContext.getContentResolver(), uri);
+        submit(writeExecutor, () -> importer.run(progress -> {
+            if (!progress.finished) {
+                mainHandler.post(() -> listener.onProgress(progress));  // The final progress is the result
+            }
+        }), MealImporter.Progress.failed(appContext.getString(R.string.import_crashed)), listener::onProgress);
+        return importer;
+    }
+
+    /**
+     * Exports every archived and planned meal to a gzip-compressed file, streamed from the
+     * database without loading the meals into memory.
+     *
+     * @param target   The file to write, from the system file picker.
+     * @param format   MealExporter.FORMAT_CSV or FORMAT_JSON.
+     * @param callback Receives the number of meals written, or -1 on failure.
+     */
+    public Request exportMealPlan(Uri target, int format, Callback<Integer> callback) {
+        return submit(exportExecutor, () -> {
+            try (OutputStream out = appContext.getContentResolver().openOutputStream(target)) {
+                if (out == null) {
+                    return -1;
+                }
+                try (GZIPOutputStream compressed = new GZIPOutputStream(out)) {
+                    return new MealExporter(db).exportMealPlan(compressed, format);
+                }
+            } catch (IOException | SQLException e) {
+                Log.e(TAG, "Failed to export the meal plan", e);
+                return -1;
+            }
+        }, -1, callback);
+    }
+
+    // --- Recipes ---
+
+    /**
+     * Saves a planned meal as a recipe template and returns its ID, or -1 on failure.
+     */
+    public Request saveMealAsRecipe(long mealId, Callback<Long> callback) {
+        return submit(writeExecutor, () -> {
+            try {
+                return db.saveMealAsRecipe(mealId);
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to save meal " + mealId + " as a recipe", e);
+                return -1L;
+            }
+        }, -1L, callback);
+    }
+
+    /**
+     * Plans recipes on a date, copying their ingredients inside SQLite, and returns how many
+     * meals were planned, or -1 on failure.
+     *
+     * @param type The meal type to plan them as, or null to use each recipe's own type.
+     */
+    public Request scheduleRecipes(List<Long> recipeIds, String date, String type, Callback<Integer> callback) {
+        return submit(writeExecutor, () -> {
+            try {
+                return db.scheduleRecipes(recipeIds, date, type);
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to schedule recipes on " + date, e);
+                return -1;
+            }
+        }, -1, callback);
+    }
+
+    /**
+     * Retrieves every recipe template.
+     */
+    public Request getRecipes(Callback<List<Recipe>> callback) {
+        return submit(readExecutor, db::getRecipes, Collections.emptyList(), callback);
+    }
+
+    /**
+     * Deletes a recipe template.
+     */
+    public Request deleteRecipe(long recipeId, Callback<Boolean> onComplete) {
+        return submitWrite(() -> db.deleteRecipe(recipeId), onComplete);
+    }
+
+    /**
+     * Retrieves archived meals between two dates, grouped by date and meal type.
+     */
+    public Request getMealHistory(String startDate, String endDate,
+                                  Callback<Map<String, Map<String, List<Meal>>>> callback) {
+        return submit(readExecutor, () -> db.getMealHistory(startDate, endDate), Collections.emptyMap(), callback);
+    }
+
+    /**
+     * Retrieves the ingredients of an archived meal.
+     */
+    public Request getMealHistoryIngredients(Meal meal, Callback<List<Ingredient>> callback) {
+        return submit(readExecutor, () -> db.getMealHistoryIngredients(meal), Collections.emptyList(), callback);
+    }
+
+    /**
+     * Retrieves the number of archived meals per month (yyyy-MM), newest first.
+     */
+    public Request getMealHistoryMonths(Callback<Map<String, Integer>> callback) {
+        return submit(readExecutor, db::getMealHistoryMonths, Collections.emptyMap(), callback);
+    }
+
+    // --- Shopping List ---
+
+    /**
+     * Observes the consolidated shopping list, or one category unless the category is "All".
+     * A category list re-runs only when ingredients in that category change.
+     *
+     * @param sortOrder DatabaseHelper.SORT_BY_NAME or SORT_BY_QUANTITY; SQLite does the sorting.
+     */
+    public LiveData<List<Ingredient>> observeShoppingList(String category, int sortOrder) {
+        boolean all = category.equalsIgnoreCase("All");
+        return new ObservableQuery<>(InvalidationTracker.TABLE_INGREDIENTS,
+                all ? null : category::equals,
+                () -> all ? db.getConsolidatedIngredients(sortOrder) : db.getIngredientsByCategory(category, sortOrder));
+    }
+
+    /**
+     * Observes a shopping-list search. When the current results are already known they are
+     * delivered straight away, and the query only runs once ingredients change.
+     *
+     * @param query        The search text.
+     * @param sortOrder    DatabaseHelper.SORT_BY_NAME or SORT_BY_QUANTITY.
+     * @param knownResults Results already computed for this query, or null to run the query now.
+     */
+    public LiveData<List<Ingredient>> observeSearch(String query, int sortOrder, List<Ingredient> knownResults) {
+        ObservableQuery<List<Ingredient>> search = new ObservableQuery<>(InvalidationTracker.TABLE_INGREDIENTS,
+                null, () -> db.searchIngredients(query, sortOrder));
+        if (knownResults != null) {
+            search.setKnownValue(knownResults);
+        }
+        return search;
+    }
+
+    /**
+     * Looks up a single shopping-list item by name and category.
+     */
+    public Request getIngredient(String name, String category, Callback<Ingredient> callback) {
+        return submit(readExecutor, () -> db.getIngredientByNameAndCategory(name, category), null, callback);
+    }
+
+    /**
+     * Queues a quantity to add to a shopping-list item, creating it if needed.
+     */
+    public WriteBehindQueue.UndoToken addOrUpdateIngredient(String name, String category, int quantity,
+                                                            Callback<Boolean> onComplete) {
+        return shoppingListWrites.add(name, category, quantity, onComplete);
+    }
+
+    /**
+     * Queues a quantity to remove from a shopping-list item.
+     */
+    public WriteBehindQueue.UndoToken removeIngredientQuantity(String name, String category, int quantity,
+                                                               Callback<Boolean> onComplete) {
+        return shoppingListWrites.remove(name, category, quantity, onComplete);
+    }
+
+    /**
+     * Queues the deletion of every row of a shopping-list item.
+     */
+    public WriteBehindQueue.UndoToken deleteIngredient(String name, String category, Callback<Boolean> onComplete) {
+        return shoppingListWrites.delete(name, category, onComplete);
+    }
+
+    /**
+     * Undoes the most recent journaled shopping-list change, after writing any queued changes.
+     * Reports whether there was a change to undo; a failed write also reports false.
+     */
+    public Request undoIngredientChange(Callback<Boolean> callback) {
+        shoppingListWrites.flush();
+        return submitJournalReplay(db::undoIngredientChange, callback);
+    }
+
+    /**
+     * Undoes the shopping-list change a token names, after writing any queued changes,
+     * so the token's operation is known by the time the undo runs.
+     * Reports whether it was undone; it is not once a later change to the same item is in the way.
+     */
+    public Request undoIngredientChange(WriteBehindQueue.UndoToken token, Callback<Boolean> callback) {
+        shoppingListWrites.flush();
+        return submitJournalReplay(() -> token.getOperationId() != -1
+                && db.undoIngredientChange(token.getOperationId()), callback);
+    }
+
+    /**
+     * Redoes the most recently undone shopping-list change, after writing any queued changes.
+     * Reports whether there was a change to redo; a failed write also reports false.
+     */
+    public Request redoIngredientChange(Callback<Boolean> callback) {
+        shoppingListWrites.flush();
+        return submitJournalReplay(db::redoIngredientChange, callback);
+    }
+
+    /**
+     * Exports the shopping list to a file in the cache that can be shared with other apps.
+     * Queued changes are written first, so the export matches what the user sees.
+     *
+     * @param format   MealExporter.FORMAT_CSV or FORMAT_JSON.
+     * @param callback Receives a content URI readable by the receiving app, or null on failure.
+     */
+    public Request exportShoppingList(int format, Callback<Uri> callback) {
+        shoppingListWrites.flush();
+        return submit(writeExecutor, () -> {
+            File directory = new File(appContext.getCacheDir(), EXPORT_DIRECTORY);
+            File file = new File(directory, format == MealExporter.FORMAT_JSON ? "shopping-list.json" : "shopping-list.csv");
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return null;
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                new MealExporter(db).exportShoppingList(out, format);
+            } catch (IOException | SQLException e) {
+                Log.e(TAG, "Failed to export the shopping list", e);
+                return null;
+            }
+            return FileProvider.getUriForFile(appContext, appContext.getPackageName() + ".fileprovider", file);
+        }, null, callback);
+    }
+
+    /**
+     * Writes every queued shopping-list change now instead of waiting for the flush timer.
+     */
+    public void flushPendingWrites() {
+        shoppingListWrites.flush();
+    }
+
+    // --- Execution ---
+
+    /**
+     * Queues an undo or redo on the write executor, behind the writes the queue just flushed.
+     */
+    private Request submitJournalReplay(Callable<Boolean> replay, Callback<Boolean> callback) {
+        return submit(writeExecutor, () -> {
+            try {
+                return replay.call();
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to replay the shopping-list journal", e);
+                return false;
+            }
+        }, false, callback);
+    }
+
+    /**
+     * Queues a write with no result and reports on the main thread whether it succeeded.
+     */
+    private Request submitWrite(Runnable write, Callback<Boolean> onComplete) {
+        return submit(writeExecutor, () -> {
+            try {
+                write.run();
+                return true;
+            } catch (SQLException e) {
+                Log.e(TAG, "Database write failed", e);
+                return false;
+            }
+        }, false, onComplete);
+    }
+
+    /**
+     * Queues a database call and posts its result to the main thread unless the request was cancelled.
+     * If the call throws, the failure result is posted instead, so callers waiting on it always hear back.
+     *
+     * @param failureResult The result to deliver if the call fails.
+     */
+    private <T> Request submit(ExecutorService executor, Callable<T> call, T failureResult, Callback<T> callback) {
+        Request request = new Request();
+        FutureTask<T> task = new FutureTask<T>(call) {
+            @Override
+            protected void done() {
+                if (request.isCancelled() || isCancelled()) {
+                    return;
+                }
+                T result;
+                try {
+                    result = get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result = failureResult;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Database call failed", e.getCause());
+                    result = failureResult;
+                }
+                if (callback != null) {
+                    T delivered = result;
+                    mainHandler.post(() -> {
+                        if (!request.isCancelled()) {
+                            callback.onResult(delivered);
+                        }
+                    });
+                }
+            }
+        };
+        request.future = task;
+        executor.execute(task);
+        return request;
+    }
+
+    /**
+     * Decides whether a changed key falls inside what a query reads.
+     */
+    private interface KeyFilter {
+        boolean matches(String key);
+    }
+
+    /**
+     * LiveData backed by a query on one table. It re-runs only when the InvalidationTracker
+     * reports a change to a key it reads, and only while it has active observers.
+     * A query that was inactive during a change re-runs when it becomes active again.
+     */
+    private final class ObservableQuery<T> extends LiveData<T> implements InvalidationTracker.Observer {
+        private final String table;
+        private final KeyFilter keyFilter; // Null when any key of the table affects the query
+        private final Callable<T> query;
+
+        private boolean dirty = true;  // Whether the current value may be out of date
+        private int seenVersion;       // Table version the current value reflects
+        private Request pending;       // Run still in flight, if any
+
+        ObservableQuery(String table, KeyFilter keyFilter, Callable<T> query) {
+            this.table = table;
+            this.keyFilter = keyFilter;
+            this.query = query;
+        }
+
+        /**
+         * Publishes a value that is already known to be current, so no query is needed yet.
+         */
+        void setKnownValue(T value) {
+            setValue(value);
+            dirty = false;
+            seenVersion = invalidationTracker.getVersion(table);
+        }
+
+        @Override
+        protected void onActive() {
+            invalidationTracker.addObserver(this);
+            if (dirty || seenVersion != invalidationTracker.getVersion(table)) {
+                run();
+            }
+        }
+
+        @Override
+        protected void onInactive() {
+            invalidationTracker.removeObserver(this);
+            if (pending != null) {
+                pending.cancel();
+                pending = null;
+                dirty = true;
+            }
+        }
+
+        @Override
+        public boolean isAffectedBy(String changedTable, String key) {
+            return table.equals(changedTable) && (key == null || keyFilter == null || keyFilter.matches(key));
+        }
+
+        @Override
+        public void onInvalidated() {
+            if (hasActiveObservers()) {
+                run();
+            } else {
+                dirty = true;
+            }
+        }
+
+        /**
+         * Runs the query in the background, replacing any run still in flight.
+         */
+        private void run() {
+            if (pending != null) {
+                pending.cancel();
+            }
+            int version = invalidationTracker.getVersion(table);
+            dirty = false;
+            pending = submit(readExecutor, query, null, result -> {
+                pending = null;
+                if (result == null) {
+                    dirty = true; // The query failed; it runs again on the next change or activation
+                    return;
+                }
+                seenVersion = version;
+                setValue(result);
+            });
+        }
+    }
+
+    /**
+     * Creates named background-priority threads for the database executors.
+     */
+    private static final class DatabaseThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DatabaseThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, name + "-" + count.incrementAndGet());
+        }
+    }
+}
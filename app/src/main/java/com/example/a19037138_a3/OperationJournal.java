@@ -0,0 +1,350 @@
+package com.example.a19037138_a3;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of shopping-list changes for multi-level undo and redo.
+ * Each operation stores the ingredient rows it touched, by primary key, with their
+ * quantities before and after, so undoing or redoing writes those rows back directly
+ * instead of looking the item up again. Rows keep their meal link throughout.
+ * Operations are persisted in the journal tables in the same transaction as the change,
+ * so the history survives process death; the stacks are loaded lazily on first use.
+ * Callers serialize access through the database write thread.
+ */
+public class OperationJournal {
+
+    private static final int MAX_OPERATIONS = 50; // Oldest operations are forgotten beyond this
+
+    /**
+     * One ingredient row touched by an operation. A null quantity means the row did not exist.
+     */
+    static final class RowChange {
+        final long rowId;
+        final Long mealId;
+        final Integer quantityBefore;
+        final Integer quantityAfter;
+
+        RowChange(long rowId, Long mealId, Integer quantityBefore, Integer quantityAfter) {
+            this.rowId = rowId;
+            this.mealId = mealId;
+            this.quantityBefore = quantityBefore;
+            this.quantityAfter = quantityAfter;
+        }
+    }
+
+    /**
+     * A recorded change to one shopping-list item.
+     */
+    static final class Operation {
+        final long id;
+        final String name;
+        final String category;
+        final List<RowChange> rows;
+
+        Operation(long id, String name, String category, List<RowChange> rows) {
+            this.id = id;
+            this.name = name;
+            this.category = category;
+            this.rows = rows;
+        }
+    }
+
+    private final Deque<Operation> undoStack = new ArrayDeque<>(); // Most recent on top
+    private final Deque<Operation> redoStack = new ArrayDeque<>(); // Most recently undone on top
+    private boolean loaded;
+
+    /**
+     * Runs a change to one shopping-list item and records it, inside the caller's transaction.
+     * Recording a new operation discards anything that could have been redone.
+     *
+     * @param db       The database, with a transaction open.
+     * @param name     The name of the item being changed.
+     * @param category The category of the item being changed.
+     * @param change   The change to run.
+     * @return The ID of the recorded operation, or -1 if the change left the item as it was.
+     */
+    public long record(SQLiteDatabase db, String name, String category, Runnable change) {
+        ensureLoaded(db);
+        Map<Long, long[]> before = readRows(db, name, category);
+        change.run();
+        Map<Long, long[]> after = readRows(db, name, category);
+
+        List<RowChange> rows = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : before.entrySet()) {
+            long[] afterRow = after.get(entry.getKey());
+            if (afterRow == null || afterRow[1] != entry.getValue()[1]) {
+                rows.add(toRowChange(entry.getKey(), entry.getValue(), afterRow));
+            }
+        }
+        for (Map.Entry<Long, long[]> entry : after.entrySet()) {
+            if (!before.containsKey(entry.getKey())) {
+                rows.add(toRowChange(entry.getKey(), null, entry.getValue()));
+            }
+        }
+        if (rows.isEmpty()) {
+            return -1;
+        }
+
+        db.delete("journal_rows", "operationId IN (SELECT id FROM journal_operations WHERE undone = 1)", null);
+        db.delete("journal_operations", "undone = 1", null);
+        redoStack.clear();
+
+        ContentValues operationValues = new ContentValues();
+        operationValues.put("name", name);
+        operationValues.put("category", category);
+        operationValues.put("undone", 0);
+        long operationId = db.insertOrThrow("journal_operations", null, operationValues);
+        for (RowChange row : rows) {
+            ContentValues rowValues = new ContentValues();
+            rowValues.put("operationId", operationId);
+            rowValues.put("rowId", row.rowId);
+            rowValues.put("mealId", row.mealId);
+            rowValues.put("quantityBefore", row.quantityBefore);
+            rowValues.put("quantityAfter", row.quantityAfter);
+            db.insertOrThrow("journal_rows", null, rowValues);
+        }
+        undoStack.push(new Operation(operationId, name, category, rows));
+        trim(db);
+        return operationId;
+    }
+
+    /**
+     * Undoes the most recent operation by writing its rows back to their earlier state.
+     *
+     * @param db The database, with a transaction open.
+     * @return The operation undone, or null if there was nothing to undo.
+     */
+    public Operation undo(SQLiteDatabase db) {
+        ensureLoaded(db);
+        Operation operation = undoStack.poll();
+        if (operation == null) {
+            return null;
+        }
+        return undoOperation(db, operation);
+    }
+
+    /**
+     * Undoes one particular operation, which need not be the most recent.
+     * It is refused when a later operation on the same item has not been undone,
+     * since writing the earlier quantities back would overwrite that change.
+     *
+     * @param db          The database, with a transaction open.
+     * @param operationId The operation to undo.
+     * @return The operation undone, or null if it is not undoable or conflicts with a later change.
+     */
+    public Operation undo(SQLiteDatabase db, long operationId) {
+        ensureLoaded(db);
+        Operation target = null;
+        for (Operation operation : undoStack) { // Most recent first
+            if (operation.id == operationId) {
+                target = operation;
+                break;
+            }
+        }
+        if (target == null) {
+            return null;
+        }
+        for (Operation operation : undoStack) {
+            if (operation == target) {
+                break;
+            }
+            if (operation.name.equals(target.name) && operation.category.equals(target.category)) {
+                return null; // A later change to the item is still applied
+            }
+        }
+        undoStack.remove(target);
+        return undoOperation(db, target);
+    }
+
+    /**
+     * Writes an operation's rows back to their earlier state and moves it to the redo stack.
+     */
+    private Operation undoOperation(SQLiteDatabase db, Operation operation) {
+        for (RowChange row : operation.rows) {
+            writeRow(db, operation, row, row.quantityBefore);
+        }
+        setUndone(db, operation, true);
+        redoStack.push(operation);
+        return operation;
+    }
+
+    /**
+     * Redoes the most recently undone operation by writing its rows to their later state.
+     *
+     * @param db The database, with a transaction open.
+     * @return The operation redone, or null if there was nothing to redo.
+     */
+    public Operation redo(SQLiteDatabase db) {
+        ensureLoaded(db);
+        Operation operation = redoStack.poll();
+        if (operation == null) {
+            return null;
+        }
+        for (RowChange row : operation.rows) {
+            writeRow(db, operation, row, row.quantityAfter);
+        }
+        setUndone(db, operation, false);
+        undoStack.push(operation);
+        return operation;
+    }
+
+    /**
+     * Forgets the in-memory stacks so they are reloaded from the tables,
+     * for when a transaction that recorded or replayed operations rolled back.
+     */
+    public void invalidate() {
+        undoStack.clear();
+        redoStack.clear();
+        loaded = false;
+    }
+
+    /**
+     * Writes one row to a quantity by primary key, deleting it for a null quantity.
+     * Both only touch the row while it still belongs to the operation's item; an ID that
+     * has since been reused by another item is a conflict, and that row is left alone.
+     * A row whose meal has since been deleted is not brought back. A row whose ID has
+     * since been reused is re-added under a new ID, and the journal follows it there.
+     */
+    private void writeRow(SQLiteDatabase db, Operation operation, RowChange row, Integer quantity) {
+        String[] rowArgs = {String.valueOf(row.rowId), operation.name, operation.category};
+        if (quantity == null) {
+            db.delete("ingredients", "id = ? AND name = ? AND category = ?", rowArgs);
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put("quantity", quantity);
+        if (db.update("ingredients", values, "id = ? AND name = ? AND category = ?", rowArgs) > 0) {
+            return;
+        }
+        if (row.mealId != null && !exists(db, "SELECT 1 FROM meals WHERE id = ?", row.mealId)) {
+            return;
+        }
+
+        values.put("mealId", row.mealId);
+        values.put("name", operation.name);
+        values.put("category", operation.category);
+        if (!exists(db, "SELECT 1 FROM ingredients WHERE id = ?", row.rowId)) {
+            values.put("id", row.rowId);
+            db.insertOrThrow("ingredients", null, values);
+            return;
+        }
+
+        long newId = db.insertOrThrow("ingredients", null, values);
+        ContentValues remap = new ContentValues();
+        remap.put("rowId", newId);
+        db.update("journal_rows", remap, "rowId = ? AND operationId IN " +
+                        "(SELECT id FROM journal_operations WHERE name = ? AND category = ?)",
+                new String[]{String.valueOf(row.rowId), operation.name, operation.category});
+        loaded = false; // Reload the stacks with the new ID after this replay
+    }
+
+    /**
+     * Persists whether an operation is undone.
+     */
+    private static void setUndone(SQLiteDatabase db, Operation operation, boolean undone) {
+        ContentValues values = new ContentValues();
+        values.put("undone", undone ? 1 : 0);
+        db.update("journal_operations", values, "id = ?", new String[]{String.valueOf(operation.id)});
+    }
+
+    /**
+     * Forgets the oldest operations beyond MAX_OPERATIONS.
+     */
+    private void trim(SQLiteDatabase db) {
+        while (undoStack.size() + redoStack.size() > MAX_OPERATIONS) {
+            Operation oldest = undoStack.pollLast();
+            if (oldest == null) {
+                return;
+            }
+            String[] args = {String.valueOf(oldest.id)};
+            db.delete("journal_rows", "operationId = ?", args);
+            db.delete("journal_operations", "id = ?", args);
+        }
+    }
+
+    /**
+     * Loads the stacks from the journal tables if they haven't been yet.
+     */
+    private void ensureLoaded(SQLiteDatabase db) {
+        if (loaded) {
+            return;
+        }
+        undoStack.clear();
+        redoStack.clear();
+
+        Map<Long, List<RowChange>> rowsByOperation = new HashMap<>();
+        try (Cursor cursor = db.rawQuery("SELECT operationId, rowId, mealId, quantityBefore, quantityAfter " +
+                "FROM journal_rows", null)) {
+            while (cursor.moveToNext()) {
+                long operationId = cursor.getLong(0);
+                List<RowChange> rows = rowsByOperation.get(operationId);
+                if (rows == null) {
+                    rows = new ArrayList<>();
+                    rowsByOperation.put(operationId, rows);
+                }
+                rows.add(new RowChange(cursor.getLong(1),
+                        cursor.isNull(2) ? null : cursor.getLong(2),
+                        cursor.isNull(3) ? null : cursor.getInt(3),
+                        cursor.isNull(4) ? null : cursor.getInt(4)));
+            }
+        }
+
+        try (Cursor cursor = db.rawQuery("SELECT id, name, category, undone FROM journal_operations ORDER BY id", null)) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                List<RowChange> rows = rowsByOperation.get(id);
+                Operation operation = new Operation(id, cursor.getString(1), cursor.getString(2),
+                        rows != null ? rows : new ArrayList<>());
+                if (cursor.getInt(3) == 0) {
+                    undoStack.push(operation);     // Later operations end up on top
+                } else {
+                    redoStack.addLast(operation);  // The earliest undone operation stays on top
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    /**
+     * Reads the rows of a shopping-list item as {mealId or -1, quantity}, keyed by row ID.
+     */
+    private static Map<Long, long[]> readRows(SQLiteDatabase db, String name, String category) {
+        Map<Long, long[]> rows = new HashMap<>();
+        try (Cursor cursor = db.rawQuery("SELECT id, mealId, quantity FROM ingredients WHERE name = ? AND category = ?",
+                new String[]{name, category})) {
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getLong(0), new long[]{cursor.isNull(1) ? -1 : cursor.getLong(1), cursor.getLong(2)});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Builds the change of one row from its state before and after, either of which may be missing.
+     */
+    private static RowChange toRowChange(long rowId, long[] before, long[] after) {
+        long[] known = before != null ? before : after;
+        return new RowChange(rowId,
+                known[0] < 0 ? null : known[0],
+                before != null ? (int) before[1] : null,
+                after != null ? (int) after[1] : null);
+    }
+
+    /**
+     * Returns whether a single-parameter query finds a row.
+     */
+    private static boolean exists(SQLiteDatabase db, String sql, long arg) {
+        try (Cursor cursor = db.rawQuery(sql, new String[]{String.valueOf(arg)})) {
+            return cursor.moveToFirst();
+        }
+    }
+}
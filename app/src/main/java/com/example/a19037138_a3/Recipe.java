@@ -0,0 +1,64 @@
+package com.example.a19037138_a3;
+
+/**
+ * Represents a saved recipe template that can be scheduled onto any date.
+ * Its ingredients stay in the database and are copied there when it is scheduled.
+ */
+public class Recipe {
+
+    private final long id;
+    private final String name;
+    private final String type;
+    private final int ingredientCount;
+
+    /**
+     * Initializes a new Recipe object with the given details.
+     *
+     * @param id              The unique ID of the recipe.
+     * @param name            The name of the recipe.
+     * @param type            The meal type it is usually planned as (e.g., Breakfast, Lunch).
+     * @param ingredientCount The number of ingredients in the recipe.
+     */
+    public Recipe(long id, String name, String type, int ingredientCount) {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.ingredientCount = ingredientCount;
+    }
+
+    /**
+     * Retrieves the ID of the recipe.
+     *
+     * @return The unique ID of the recipe.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Retrieves the name of the recipe.
+     *
+     * @return The name of the recipe.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retrieves the meal type the recipe is usually planned as.
+     *
+     * @return The type of the recipe.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Retrieves the number of ingredients in the recipe.
+     *
+     * @return The ingredient count.
+     */
+    public int getIngredientCount() {
+        return ingredientCount;
+    }
+}
@@ -0,0 +1,358 @@
+package com.example.a19037138_a3;
+
+import android.util.LruCache;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide, size-bounded cache of meals and shopping-list items.
+ * Meals are cached per day (by date, then type) and shopping-list items by name and category.
+ * Whole shopping lists are kept exactly as SQLite ordered them, per category and sort order.
+ * DatabaseHelper consults it before querying, writes single mutations through to it and
+ * drops what a transaction touched once it has committed, so screens reading the same
+ * records are served from memory. The least recently used
+ * days and items are evicted first. All methods are thread-safe.
+ */
+public class RecordCache {
+
+    private static final int MAX_CACHED_DAYS = 120;          // About four months of the calendar
+    private static final int MAX_CACHED_INGREDIENTS = 500;   // Shopping-list items
+    private static final int MAX_CACHED_LIST_ROWS = 1000;    // Rows across every cached list
+    private static final String ALL_CATEGORIES = "\u0000all"; // List key part for the whole list
+
+    // Day (yyyy-MM-dd) to its meals by type; days without meals are cached as empty maps
+    private final LruCache<String, Map<String, List<Meal>>> days = new LruCache<>(MAX_CACHED_DAYS);
+
+    // Consolidated shopping-list items keyed by name and category
+    private final LruCache<String, Ingredient> ingredients = new LruCache<>(MAX_CACHED_INGREDIENTS);
+
+    // Whole lists in database order, keyed by category and sort order; sized by their rows
+    private final LruCache<String, List<Ingredient>> lists = new LruCache<String, List<Ingredient>>(MAX_CACHED_LIST_ROWS) {
+        @Override
+        protected int sizeOf(String key, List<Ingredient> value) {
+            return value.size() + 1;
+        }
+    };
+
+    // Bumped by every write-through, so a read that raced a write never caches stale rows
+    private int mealGeneration;
+    private int ingredientGeneration;
+
+    private int hitCount;
+    private int missCount;
+
+    // --- Meals ---
+
+    /**
+     * Returns the meals between two dates if every day in the range is cached.
+     *
+     * @param startDate The first date of the range (yyyy-MM-dd).
+     * @param endDate   The last date of the range (yyyy-MM-dd).
+     * @return Meals keyed by date, then by type, in date order, or null on a miss.
+     */
+    public synchronized Map<String, Map<String, List<Meal>>> getMealsInRange(String startDate, String endDate) {
+        Map<String, Map<String, List<Meal>>> mealsByDate = new LinkedHashMap<>();
+        for (String date : datesBetween(startDate, endDate)) {
+            Map<String, List<Meal>> mealsByType = days.get(date);
+            if (mealsByType == null) {
+                missCount++;
+                return null;
+            }
+            if (!mealsByType.isEmpty()) {
+                mealsByDate.put(date, mealsByType);
+            }
+        }
+        hitCount++;
+        return mealsByDate;
+    }
+
+    /**
+     * Returns the current meal generation, to be passed back to {@link #putMealsInRange}.
+     */
+    public synchronized int getMealGeneration() {
+        return mealGeneration;
+    }
+
+    /**
+     * Caches every day of a range that was just read from the database, including days without meals.
+     * Ignored if a meal was written since the read started.
+     *
+     * @param startDate  The first date of the range.
+     * @param endDate    The last date of the range.
+     * @param meals      The meals read, keyed by date and then type.
+     * @param generation The meal generation taken before the read.
+     */
+    public synchronized void putMealsInRange(String startDate, String endDate,
+                                             Map<String, Map<String, List<Meal>>> meals, int generation) {
+        if (generation != mealGeneration) {
+            return;
+        }
+        for (String date : datesBetween(startDate, endDate)) {
+            Map<String, List<Meal>> mealsByType = meals.get(date);
+            days.put(date, mealsByType != null ? freeze(mealsByType) : Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Writes a new meal through to its day, if the day is cached.
+     *
+     * @param meal The meal that was added.
+     */
+    public synchronized void addMeal(Meal meal) {
+        mealGeneration++;
+        Map<String, List<Meal>> mealsByType = days.get(meal.getDate());
+        if (mealsByType == null) {
+            return;
+        }
+        Map<String, List<Meal>> updated = new LinkedHashMap<>(mealsByType);
+        List<Meal> meals = new ArrayList<>(getOrEmpty(updated, meal.getType()));
+        meals.add(meal);
+        updated.put(meal.getType(), meals);
+        days.put(meal.getDate(), freeze(updated));
+    }
+
+    /**
+     * Writes a deleted meal through to its day, if the day is cached.
+     *
+     * @param date   The date of the meal.
+     * @param mealId The ID of the meal that was deleted.
+     */
+    public synchronized void removeMeal(String date, long mealId) {
+        mealGeneration++;
+        Map<String, List<Meal>> mealsByType = days.get(date);
+        if (mealsByType == null) {
+            return;
+        }
+        Map<String, List<Meal>> updated = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Meal>> entry : mealsByType.entrySet()) {
+            List<Meal> meals = new ArrayList<>();
+            for (Meal meal : entry.getValue()) {
+                if (meal.getId() != mealId) {
+                    meals.add(meal);
+                }
+            }
+            if (!meals.isEmpty()) {
+                updated.put(entry.getKey(), meals);
+            }
+        }
+        days.put(date, freeze(updated));
+    }
+
+    /**
+     * Drops every cached day, for changes that can touch any number of days.
+     */
+    public synchronized void clearMeals() {
+        mealGeneration++;
+        days.evictAll();
+    }
+
+    // --- Shopping List ---
+
+    /**
+     * Returns a cached shopping-list item.
+     *
+     * @param name     The name of the item.
+     * @param category The category of the item.
+     * @return A copy of the item, or null on a miss.
+     */
+    public synchronized Ingredient getIngredient(String name, String category) {
+        Ingredient ingredient = ingredients.get(ingredientKey(name, category));
+        if (ingredient == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return copy(ingredient);
+    }
+
+    /**
+     * Returns the shopping list, or one category of it, as last read from the database.
+     *
+     * @param category  The category, or null for the whole list.
+     * @param sortOrder The sort order the list was read with.
+     * @return Copies of the items in database order, or null on a miss.
+     */
+    public synchronized List<Ingredient> getIngredients(String category, int sortOrder) {
+        List<Ingredient> list = lists.get(listKey(category, sortOrder));
+        if (list == null) {
+            missCount++;
+            return null;
+        }
+        List<Ingredient> result = new ArrayList<>(list.size());
+        for (Ingredient ingredient : list) {
+            result.add(copy(ingredient));
+        }
+        hitCount++;
+        return result;
+    }
+
+    /**
+     * Returns the current ingredient generation, to be passed back to the put methods.
+     */
+    public synchronized int getIngredientGeneration() {
+        return ingredientGeneration;
+    }
+
+    /**
+     * Caches a list that was just read from the database, along with each of its items.
+     * Ignored if an ingredient was written since the read started, or if the list
+     * would not fit in the cache.
+     *
+     * @param category   The category of the list, or null for the whole list.
+     * @param sortOrder  The sort order the list was read with.
+     * @param list       The items read, in database order.
+     * @param generation The ingredient generation taken before the read.
+     */
+    public synchronized void putIngredients(String category, int sortOrder, List<Ingredient> list, int generation) {
+        if (generation != ingredientGeneration || list.size() > MAX_CACHED_INGREDIENTS) {
+            return;
+        }
+        List<Ingredient> copies = new ArrayList<>(list.size());
+        for (Ingredient ingredient : list) {
+            Ingredient copy = copy(ingredient);
+            copies.add(copy);
+            ingredients.put(ingredientKey(ingredient.getName(), ingredient.getCategory()), copy);
+        }
+        lists.put(listKey(category, sortOrder), Collections.unmodifiableList(copies));
+    }
+
+    /**
+     * Caches one item that was just read from the database.
+     * Ignored if an ingredient was written since the read started.
+     *
+     * @param ingredient The item read.
+     * @param generation The ingredient generation taken before the read.
+     */
+    public synchronized void putIngredient(Ingredient ingredient, int generation) {
+        if (generation == ingredientGeneration) {
+            ingredients.put(ingredientKey(ingredient.getName(), ingredient.getCategory()), copy(ingredient));
+        }
+    }
+
+    /**
+     * Writes the current state of an item through to the cache after a mutation.
+     * The lists holding the item are dropped, since its position in them may have changed.
+     *
+     * @param name       The name of the item.
+     * @param category   The category of the item.
+     * @param ingredient The item as it now is in the database, or null if it no longer exists.
+     */
+    public synchronized void writeIngredient(String name, String category, Ingredient ingredient) {
+        ingredientGeneration++;
+        if (ingredient != null) {
+            ingredients.put(ingredientKey(name, category), copy(ingredient));
+        } else {
+            ingredients.remove(ingredientKey(name, category));
+        }
+        String categoryPart = category + '\u0000';
+        for (String key : lists.snapshot().keySet()) {
+            if (key.startsWith(categoryPart) || key.startsWith(ALL_CATEGORIES + '\u0000')) {
+                lists.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops every cached item, for mutations that touch more items than are worth looking up.
+     */
+    public synchronized void clearIngredients() {
+        ingredientGeneration++;
+        ingredients.evictAll();
+        lists.evictAll();
+    }
+
+    /**
+     * Drops every cached day and item.
+     */
+    public synchronized void clear() {
+        clearMeals();
+        clearIngredients();
+    }
+
+    // --- Statistics ---
+
+    /**
+     * Returns how many lookups were served from memory.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns how many lookups had to go to the database.
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    // --- Helpers ---
+
+    /**
+     * Returns every date from startDate to endDate inclusive, or an empty list if either is malformed.
+     */
+    private static List<String> datesBetween(String startDate, String endDate) {
+        List<String> dates = new ArrayList<>();
+        SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+        Calendar calendar = Calendar.getInstance();
+        try {
+            calendar.setTime(dbDateFormat.parse(startDate));
+        } catch (ParseException e) {
+            return dates;
+        }
+        String date = dbDateFormat.format(calendar.getTime());
+        while (date.compareTo(endDate) <= 0) {
+            dates.add(date);
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+            date = dbDateFormat.format(calendar.getTime());
+        }
+        return dates;
+    }
+
+    /**
+     * Returns an unmodifiable copy of a day's meals, so cached days can be handed out safely.
+     */
+    private static Map<String, List<Meal>> freeze(Map<String, List<Meal>> mealsByType) {
+        Map<String, List<Meal>> frozen = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Meal>> entry : mealsByType.entrySet()) {
+            frozen.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    /**
+     * Returns the meals of a type, or an empty list.
+     */
+    private static List<Meal> getOrEmpty(Map<String, List<Meal>> mealsByType, String type) {
+        List<Meal> meals = mealsByType.get(type);
+        return meals != null ? meals : Collections.emptyList();
+    }
+
+    /**
+     * Returns the cache key of a shopping-list item.
+     */
+    private static String ingredientKey(String name, String category) {
+        return name + '\u0000' + category;
+    }
+
+    /**
+     * Returns the cache key of a list.
+     */
+    private static String listKey(String category, int sortOrder) {
+        return (category != null ? category : ALL_CATEGORIES) + '\u0000' + sortOrder;
+    }
+
+    /**
+     * Copies an item, since Ingredient is mutable.
+     */
+    private static Ingredient copy(Ingredient ingredient) {
+        return new Ingredient(ingredient.getId(), ingredient.getName(), ingredient.getCategory(),
+                ingredient.getQuantity());
+    }
+}
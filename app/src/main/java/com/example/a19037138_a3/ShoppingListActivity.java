@@ -1,11 +1,12 @@
 package com.example.a19037138_a3;
 
-import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
@@ -13,10 +14,12 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.Spinner;
+import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.PopupMenu;
 import androidx.appcompat.widget.SearchView;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.ItemTouchHelper;
@@ -47,9 +50,8 @@ public class ShoppingListActivity extends AppCompatActivity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_shopping_list);
 
-        // Initialize ViewModel and assign the Snackbar listener
+        // Initialize ViewModel
         viewModel = new ViewModelProvider(this).get(ShoppingListViewModel.class);
-        viewModel.setSnackbarListener(this::showUndoSnackbar);
 
         // Set up RecyclerView with adapter and layout manager
         recyclerView = findViewById(R.id.recyclerView);
@@ -58,6 +60,7 @@ public class ShoppingListActivity extends AppCompatActivity
         recyclerView.setAdapter(adapter);
 
         // Set up other components and listeners
+        viewModel.setSortOrder(getSelectedSortOrder());  // Before the spinner loads the list
         setupCategorySpinner();
         setupSwipeToDelete();
         setupSearchFunctionality();
@@ -70,19 +73,20 @@ public class ShoppingListActivity extends AppCompatActivity
         ImageButton backButton = findViewById(R.id.back_button);
         backButton.setOnClickListener(v -> goBackToMain());
 
+        // Sort button showing the sort options
+        ImageButton sortButton = findViewById(R.id.sort_button);
+        sortButton.setOnClickListener(this::showSortMenu);
+
         // Observe data changes in ViewModel
         observeData();
     }
 
     /**
      * Observes changes in the ingredient data and updates the adapter accordingly.
+     * The adapter diffs the new list and only updates rows that changed.
      */
-    @SuppressLint("NotifyDataSetChanged")
     private void observeData() {
-        viewModel.getIngredients().observe(this, ingredients -> {
-            adapter.updateList(new ArrayList<>(ingredients));
-            adapter.notifyDataSetChanged();  // Refresh UI
-        });
+        viewModel.getIngredients().observe(this, adapter::updateList);
     }
 
     /**
@@ -132,13 +136,20 @@ public class ShoppingListActivity extends AppCompatActivity
                 return false;  // No move operation required
             }
 
+            @Override
+            public int getSwipeDirs(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+                if (viewHolder.getItemViewType() == ShoppingListAdapter.VIEW_TYPE_HEADER) {
+                    return 0;  // Category headers can't be swiped away
+                }
+                return super.getSwipeDirs(recyclerView, viewHolder);
+            }
+
             @Override
             public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
                 int position = viewHolder.getBindingAdapterPosition();
                 if (position != RecyclerView.NO_POSITION) {
                     Ingredient ingredient = adapter.getIngredientAt(position);
-                    viewModel.deleteIngredient(ingredient);
-                    showUndoSnackbar(ingredient, ingredient.getQuantity());
+                    showUndoSnackbar(ingredient, viewModel.deleteIngredient(ingredient));
                 }
             }
         };
@@ -160,7 +171,7 @@ public class ShoppingListActivity extends AppCompatActivity
 
             @Override
             public boolean onQueryTextChange(String newText) {
-                viewModel.searchIngredients(newText);
+                viewModel.onSearchQueryChanged(newText);  // Debounced in the ViewModel
                 return false;
             }
         });
@@ -182,6 +193,52 @@ public class ShoppingListActivity extends AppCompatActivity
         finish();
     }
 
+    /**
+     * Shows the sort, undo, redo and share options from menu_shopping_list and applies the chosen one.
+     */
+    private void showSortMenu(View anchor) {
+        PopupMenu popupMenu = new PopupMenu(this, anchor);
+        popupMenu.getMenuInflater().inflate(R.menu.menu_shopping_list, popupMenu.getMenu());
+        popupMenu.setOnMenuItemClickListener(this::onMenuOptionSelected);
+        popupMenu.show();
+    }
+
+    /**
+     * Applies a menu option. Sort options are saved and the database returns the list in the new order.
+     */
+    private boolean onMenuOptionSelected(MenuItem item) {
+        if (item.getItemId() == R.id.undo_change) {
+            viewModel.undo(undone -> showJournalResult(undone, R.string.nothing_to_undo));
+            return true;
+        } else if (item.getItemId() == R.id.redo_change) {
+            viewModel.redo(redone -> showJournalResult(redone, R.string.nothing_to_redo));
+            return true;
+        } else if (item.getItemId() == R.id.share_list) {
+            viewModel.exportShoppingList(this::shareExport);
+            return true;
+        }
+
+        int sortOrder;
+        if (item.getItemId() == R.id.sort_by_name) {
+            sortOrder = DatabaseHelper.SORT_BY_NAME;
+        } else if (item.getItemId() == R.id.sort_by_quantity) {
+            sortOrder = DatabaseHelper.SORT_BY_QUANTITY;
+        } else {
+            return false;
+        }
+        viewModel.setSortOrder(sortOrder);
+        getSharedPreferences("app_prefs", MODE_PRIVATE).edit().putInt("sort_order", sortOrder).apply();
+        return true;
+    }
+
+    /**
+     * Retrieves the saved sort order from shared preferences.
+     */
+    private int getSelectedSortOrder() {
+        SharedPreferences prefs = getSharedPreferences("app_prefs", MODE_PRIVATE);
+        return prefs.getInt("sort_order", DatabaseHelper.SORT_BY_NAME);
+    }
+
     /**
      * Saves the selected category in shared preferences.
      */
@@ -199,14 +256,43 @@ public class ShoppingListActivity extends AppCompatActivity
     }
 
     /**
-     * Displays an undo Snack bar when an ingredient is modified.
+     * Offers an exported shopping list to other apps.
+     */
+    private void shareExport(Uri uri) {
+        if (uri == null) {
+            Toast.makeText(this, R.string.share_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/csv");
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.share_list)));
+    }
+
+    /**
+     * Tells the user when an undo or redo found nothing to replay.
      */
-    private void showUndoSnackbar(Ingredient ingredient, int originalQuantity) {
+    private void showJournalResult(boolean replayed, int emptyMessage) {
+        if (!replayed) {
+            Toast.makeText(this, emptyMessage, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Displays an undo Snack bar when an ingredient is modified. Its action undoes exactly
+     * that change, whatever else has been changed since.
+     *
+     * @param ingredient The ingredient that was changed.
+     * @param token      The token of the change.
+     */
+    private void showUndoSnackbar(Ingredient ingredient, WriteBehindQueue.UndoToken token) {
         View parentView = findViewById(android.R.id.content); // Use a valid root view
 
         if (parentView != null) {
-            Snackbar.make(parentView, "Ingredient updated", Snackbar.LENGTH_LONG)
-                    .setAction("UNDO", v -> viewModel.restoreOriginalQuantity(ingredient, originalQuantity))
+            Snackbar.make(parentView, getString(R.string.ingredient_updated, ingredient.getName()), Snackbar.LENGTH_LONG)
+                    .setAction("UNDO", v -> viewModel.undo(token,
+                            undone -> showJournalResult(undone, R.string.undo_not_possible)))
                     .show();
         } else {
             Log.e("ShoppingListActivity", "Failed to show Snackbar: Parent view is null.");
@@ -251,10 +337,9 @@ public class ShoppingListActivity extends AppCompatActivity
             if (!inputText.isEmpty()) {
                 int quantityToRemove = Integer.parseInt(inputText);
                 if (quantityToRemove > 0 && quantityToRemove <= ingredient.getQuantity()) {
-                    viewModel.reduceIngredientQuantity(ingredient, quantityToRemove);
-                    adapter.notifyItemChanged(position);
+                    WriteBehindQueue.UndoToken token = viewModel.reduceIngredientQuantity(ingredient, quantityToRemove);
                     dialog.dismiss();
-                    showUndoSnackbar(ingredient, ingredient.getQuantity());
+                    showUndoSnackbar(ingredient, token);
                 } else {
                     quantityInput.setError("Invalid quantity");
                 }
@@ -264,15 +349,23 @@ public class ShoppingListActivity extends AppCompatActivity
         });
 
         deleteAllButton.setOnClickListener(v -> {
-            viewModel.deleteIngredient(ingredient);
-            adapter.removeIngredientAt(position);
+            WriteBehindQueue.UndoToken token = viewModel.deleteIngredient(ingredient);  // Removed from the list straight away
             dialog.dismiss();
-            showUndoSnackbar(ingredient, ingredient.getQuantity());
+            showUndoSnackbar(ingredient, token);
         });
 
         dialog.show();
     }
 
+    /**
+     * Writes queued quantity changes once the shopping list is no longer visible.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        viewModel.flushPendingWrites();
+    }
+
     /**
      * Releases resources when the activity is destroyed.
      */
@@ -8,18 +8,93 @@ import android.widget.CheckBox;
 import android.widget.ImageButton;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Adapter for displaying a list of ingredients in the shopping list.
  * Manages the binding of data to UI components within RecyclerView items.
+ * Ingredients arrive grouped by category from the database and are shown under a header
+ * per category. List changes are diffed off the main thread so only changed rows are rebound.
  */
-public class ShoppingListAdapter extends RecyclerView.Adapter<ShoppingListAdapter.ViewHolder> {
+public class ShoppingListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
-    private final List<Ingredient> ingredients; // List of ingredients to display
+    public static final int VIEW_TYPE_HEADER = 0;     // Category header
+    public static final int VIEW_TYPE_INGREDIENT = 1; // Ingredient row
+
+    // Payload for a row whose only change is its quantity
+    private static final Object QUANTITY_CHANGED = new Object();
+
+    // --- Stable ID spaces; the kind of row is tagged in the high bits, so IDs of different kinds never collide ---
+    private static final long ID_KIND_INGREDIENT = 1L << 32; // Low bits: database ID, stored (> 0) or recurring (< 0)
+    private static final long ID_KIND_UNSAVED = 2L << 32;    // Low bits: sequence number of an item not saved yet
+    private static final long ID_KIND_HEADER = 3L << 32;     // Low bits: sequence number of a category
+
+    /**
+     * One row of the list: either a category header or an ingredient.
+     */
+    private static final class Row {
+        final String category;        // Set for headers
+        final Ingredient ingredient;  // Set for ingredient rows
+
+        Row(String category, Ingredient ingredient) {
+            this.category = category;
+            this.ingredient = ingredient;
+        }
+
+        boolean isHeader() {
+            return ingredient == null;
+        }
+    }
+
+    /**
+     * Identifies headers by category and ingredient rows by ingredient ID, or by name and category
+     * while an ingredient has not been saved yet, and compares what each row displays.
+     */
+    private static final DiffUtil.ItemCallback<Row> DIFF_CALLBACK = new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Row oldItem, @NonNull Row newItem) {
+            if (oldItem.isHeader() || newItem.isHeader()) {
+                return oldItem.isHeader() && newItem.isHeader() && Objects.equals(oldItem.category, newItem.category);
+            }
+            Ingredient oldIngredient = oldItem.ingredient;
+            Ingredient newIngredient = newItem.ingredient;
+            if (oldIngredient.getId() == 0 && newIngredient.getId() == 0) {
+                return Objects.equals(oldIngredient.getName(), newIngredient.getName())
+                        && Objects.equals(oldIngredient.getCategory(), newIngredient.getCategory());
+            }
+            return oldIngredient.getId() == newIngredient.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Row oldItem, @NonNull Row newItem) {
+            if (oldItem.isHeader()) {
+                return true;  // A header only shows its category, which identifies it
+            }
+            Ingredient oldIngredient = oldItem.ingredient;
+            Ingredient newIngredient = newItem.ingredient;
+            return oldIngredient.getQuantity() == newIngredient.getQuantity()
+                    && Objects.equals(oldIngredient.getName(), newIngredient.getName())
+                    && Objects.equals(oldIngredient.getCategory(), newIngredient.getCategory());
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Row oldItem, @NonNull Row newItem) {
+            boolean sameLabel = Objects.equals(oldItem.ingredient.getName(), newItem.ingredient.getName())
+                    && Objects.equals(oldItem.ingredient.getCategory(), newItem.ingredient.getCategory());
+            return sameLabel ? QUANTITY_CHANGED : null;
+        }
+    };
+
+    private final AsyncListDiffer<Row> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK); // Diffs on a background thread
     private final OnIngredientDeleteListener deleteListener; // Listener for delete actions
+    private final Map<String, Long> sequenceIds = new HashMap<>(); // Stable IDs of headers and unsaved items by key
 
     /**
      * Constructor to initialize the adapter with ingredients and a delete listener.
@@ -28,8 +103,9 @@ public class ShoppingListAdapter extends RecyclerView.Adapter<ShoppingListAdapte
      * @param deleteListener Listener to handle ingredient deletion.
      */
     public ShoppingListAdapter(List<Ingredient> ingredients, OnIngredientDeleteListener deleteListener) {
-        this.ingredients = new ArrayList<>(ingredients);
         this.deleteListener = deleteListener;
+        setHasStableIds(true);
+        differ.submitList(toRows(ingredients));
     }
 
     /**
@@ -42,27 +118,70 @@ public class ShoppingListAdapter extends RecyclerView.Adapter<ShoppingListAdapte
     /**
      * Retrieves the ingredient at a specified position.
      *
-     * @param position The position of the ingredient in the list.
-     * @return The ingredient at the given position.
+     * @param position The position of the row in the list.
+     * @return The ingredient at the given position, or null if the row is a category header.
      */
     public Ingredient getIngredientAt(int position) {
-        return ingredients.get(position);
+        return differ.getCurrentList().get(position).ingredient;
     }
 
     /**
-     * Updates the ingredient list and refreshes the RecyclerView.
+     * Submits a new ingredient list, already grouped by category. A header is added wherever
+     * the category changes; the difference from the current rows is computed in the background
+     * and only the changed rows are updated.
      *
-     * @param newList The new list of ingredients to display.
+     * @param newList The new list of ingredients to display, grouped by category.
      */
-    @SuppressWarnings("NotifyDataSetChanged")
     public void updateList(List<Ingredient> newList) {
-        ingredients.clear();
-        ingredients.addAll(newList);
-        notifyDataSetChanged();  // Refresh the entire UI with new data
+        differ.submitList(toRows(newList));
+    }
+
+    /**
+     * Returns the stable ID of a row: the ingredient ID for a saved ingredient, and an ID assigned
+     * on first sight, kept for as long as the adapter lives, for a header or an unsaved ingredient.
+     *
+     * @param position The position of the item in the list.
+     * @return The stable ID of the item.
+     */
+    @Override
+    public long getItemId(int position) {
+        Row row = differ.getCurrentList().get(position);
+        if (row.isHeader()) {
+            return sequenceId(ID_KIND_HEADER, row.category);
+        }
+        Ingredient ingredient = row.ingredient;
+        if (ingredient.getId() == 0) {
+            return sequenceId(ID_KIND_UNSAVED, ingredient.getCategory() + '\n' + ingredient.getName());
+        }
+        return ID_KIND_INGREDIENT | (ingredient.getId() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the ID assigned to a header or unsaved item, assigning the next one on first use.
+     */
+    private long sequenceId(long kind, String key) {
+        String taggedKey = kind + ":" + key;
+        Long id = sequenceIds.get(taggedKey);
+        if (id == null) {
+            id = kind | sequenceIds.size();
+            sequenceIds.put(taggedKey, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns whether the row at a position is a category header or an ingredient.
+     *
+     * @param position The position of the row.
+     * @return VIEW_TYPE_HEADER or VIEW_TYPE_INGREDIENT.
+     */
+    @Override
+    public int getItemViewType(int position) {
+        return differ.getCurrentList().get(position).isHeader() ? VIEW_TYPE_HEADER : VIEW_TYPE_INGREDIENT;
     }
 
     /**
-     * Inflates the item layout and creates a ViewHolder.
+     * Inflates a category header or an ingredient row.
      *
      * @param parent The parent view group.
      * @param viewType The view type of the new view.
@@ -70,43 +189,102 @@ public class ShoppingListAdapter extends RecyclerView.Adapter<ShoppingListAdapte
      */
     @NonNull
     @Override
-    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.ingredient_row, parent, false);
-        return new ViewHolder(view);
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        if (viewType == VIEW_TYPE_HEADER) {
+            return new HeaderViewHolder(inflater.inflate(R.layout.category_header, parent, false));
+        }
+        return new ViewHolder(inflater.inflate(R.layout.ingredient_row, parent, false));
     }
 
     /**
      * Binds data to the ViewHolder for the given position.
      *
-     * @param holder   The ViewHolder to bind data to.
-     * @param position The position of the item in the list.
+     * @param viewHolder The ViewHolder to bind data to.
+     * @param position   The position of the item in the list.
      */
     @Override
-    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Ingredient ingredient = ingredients.get(position);
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder viewHolder, int position) {
+        Row row = differ.getCurrentList().get(position);
+        if (viewHolder instanceof HeaderViewHolder) {
+            ((HeaderViewHolder) viewHolder).categoryTitle.setText(row.category);
+            return;
+        }
+        ViewHolder holder = (ViewHolder) viewHolder;
+        Ingredient ingredient = row.ingredient;
 
         // Bind ingredient data to the UI components
         holder.name.setText(ingredient.getName());
         holder.quantity.setText(String.valueOf(ingredient.getQuantity()));
 
-        // Set the delete button click listener
+        // Set the delete button click listener; the row is looked up on click, since a
+        // quantity-only rebind leaves this listener in place while the quantity changes
         holder.deleteButton.setOnClickListener(v -> {
-            if (deleteListener != null) {
-                Log.i("Adapter", "Ingredient ID passed to dialog: " + ingredient.getId());
-                deleteListener.onIngredientDelete(ingredient, holder.getBindingAdapterPosition());
+            int clickedPosition = holder.getBindingAdapterPosition();
+            if (deleteListener == null || clickedPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            Ingredient clicked = getIngredientAt(clickedPosition);
+            if (clicked != null) {
+                Log.i("Adapter", "Ingredient ID passed to dialog: " + clicked.getId());
+                deleteListener.onIngredientDelete(clicked, clickedPosition);
             }
         });
     }
 
     /**
-     * Returns the total number of items in the list.
+     * Binds only the quantity when that is all that changed, otherwise performs a full bind.
+     *
+     * @param holder   The ViewHolder to bind data to.
+     * @param position The position of the item in the list.
+     * @param payloads The change payloads from the diff, empty for a full bind.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(QUANTITY_CHANGED) && holder instanceof ViewHolder) {
+            Ingredient ingredient = differ.getCurrentList().get(position).ingredient;
+            ((ViewHolder) holder).quantity.setText(String.valueOf(ingredient.getQuantity()));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    /**
+     * Returns the total number of rows, headers included.
      *
-     * @return The size of the ingredient list.
+     * @return The number of rows.
      */
     @Override
     public int getItemCount() {
-        return ingredients.size();
+        return differ.getCurrentList().size();
+    }
+
+    /**
+     * Builds the rows for a list already grouped by category, in one pass.
+     */
+    private static List<Row> toRows(List<Ingredient> ingredients) {
+        List<Row> rows = new ArrayList<>(ingredients.size() + 8);
+        String currentCategory = null;
+        for (Ingredient ingredient : ingredients) {
+            if (rows.isEmpty() || !Objects.equals(ingredient.getCategory(), currentCategory)) {
+                currentCategory = ingredient.getCategory();
+                rows.add(new Row(currentCategory, null));
+            }
+            rows.add(new Row(currentCategory, ingredient));
+        }
+        return rows;
+    }
+
+    /**
+     * ViewHolder for a category header.
+     */
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        final TextView categoryTitle; // Displays the category name
+
+        HeaderViewHolder(View itemView) {
+            super(itemView);
+            categoryTitle = itemView.findViewById(R.id.categoryTitle);
+        }
     }
 
     /**
@@ -131,15 +309,4 @@ public class ShoppingListAdapter extends RecyclerView.Adapter<ShoppingListAdapte
             deleteButton = itemView.findViewById(R.id.deleteIngredientButton);
         }
     }
-
-    /**
-     * Removes the ingredient at the specified position from the list.
-     *
-     * @param position The position of the ingredient to remove.
-     */
-    public void removeIngredientAt(int position) {
-        ingredients.remove(position);  // Remove the ingredient from the list
-        notifyItemRemoved(position);   // Notify RecyclerView of the removal
-        notifyItemRangeChanged(position, ingredients.size());  // Smooth UI transition
-    }
 }
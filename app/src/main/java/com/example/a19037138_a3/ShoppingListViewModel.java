@@ -1,29 +1,72 @@
 package com.example.a19037138_a3;
 
 import android.app.Application;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.Observer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * ViewModel to manage the shopping list data and business logic.
  * Provides data to the UI and handles operations on ingredients.
+ * The list shown is backed by one observable query at a time, which re-runs by itself
+ * when the ingredients it reads change, so writes never reload the list explicitly.
+ * Edits are applied to the list straight away and persisted in the background;
+ * an edit whose write fails is rolled back.
  */
 public class ShoppingListViewModel extends AndroidViewModel {
 
     private static final String TAG = "ShoppingListViewModel";  // Log tag for debugging
+    private static final long SEARCH_DEBOUNCE_MS = 250;  // Keystrokes closer together than this are coalesced
 
-    private final DatabaseHelper db;  // Database helper instance
-    private final MutableLiveData<List<Ingredient>> ingredients = new MutableLiveData<>();  // LiveData for ingredients
+    private final MealRepository repository;  // Runs database work off the main thread
+    private final MediatorLiveData<List<Ingredient>> ingredients = new MediatorLiveData<>();  // LiveData for ingredients
+    private LiveData<List<Ingredient>> activeQuery;  // Query currently feeding ingredients, if any
+
+    // --- Search pipeline state (main thread only) ---
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private Runnable pendingSearch;  // Debounced search waiting to run
+    private String lastSearchQuery;  // Normalized query whose complete results are in lastSearchResults
+    private List<Ingredient> lastSearchResults;
+
+    // --- Optimistic list state (main thread only) ---
+    private String activeCategory = "All";  // Category shown while not searching
+    private String activeSearchQuery;  // Normalized query shown, or null while not searching
+    private String activeSearchText;  // Search text as typed, or null while not searching
+    private int sortOrder = DatabaseHelper.SORT_BY_NAME;  // Order SQLite returns the list in
+    private List<Ingredient> confirmedList = Collections.emptyList();  // Latest list read from the database
+    private final List<PendingEdit> pendingEdits = new ArrayList<>();  // Edits whose writes have not finished
+    private List<Ingredient> shownList = Collections.emptyList();  // confirmedList with pendingEdits applied
+    private final Map<String, Integer> shownPositions = new HashMap<>();  // Item key to position in shownList
 
     /**
-     * Interface for Snackbar actions to restore ingredient states.
+     * An edit applied to the list before its write is confirmed. Edits store the item's
+     * resulting state rather than a change, so applying one twice is harmless.
      */
-    public interface SnackbarListener {
-        void showUndoSnackbar(Ingredient ingredient, int originalQuantity);
+    private static final class PendingEdit {
+        final String key;
+        final String name;
+        final String category;
+        final Ingredient result;  // The item after the edit, or null if the edit removes it
+
+        PendingEdit(String name, String category, Ingredient result) {
+            this.key = itemKey(name, category);
+            this.name = name;
+            this.category = category;
+            this.result = result;
+        }
     }
 
     /**
@@ -33,18 +76,8 @@ public class ShoppingListViewModel extends AndroidViewModel {
      */
     public ShoppingListViewModel(@NonNull Application application) {
         super(application);
-        db = DatabaseHelper.getInstance(application);  // Initialize the database
-    }
-
-    /**
-     * Sets the Snackbar listener for undo actions.
-     *
-     * @param listener The SnackbarListener to set.
-     */
-    public void setSnackbarListener(SnackbarListener listener) {
-        if (listener != null) {
-            listener.showUndoSnackbar(new Ingredient(0, "", "", 1), 1);  // Example call to validate listener
-        }
+        DatabaseHelper.acquire(application);  // Borrow the shared database
+        repository = MealRepository.getInstance(application);
     }
 
     /**
@@ -57,103 +90,440 @@ public class ShoppingListViewModel extends AndroidViewModel {
     }
 
     /**
-     * Loads the shopping list based on the selected category.
+     * Shows the shopping list for a category, replacing the current list or search.
+     * A newer load or search detaches the previous query so stale results never overwrite it.
      *
      * @param category The category to filter ingredients by, or "All" to fetch all.
      */
     public void loadShoppingList(String category) {
-        List<Ingredient> ingredientList = category.equalsIgnoreCase("All")
-                ? db.getConsolidatedIngredients()  // Fetch all ingredients
-                : db.getIngredientsByCategory(category);  // Fetch by category
+        cancelPendingSearch();
+        clearSearchResults();  // Earlier results can't be refined once the search is left
+        activeCategory = category;
+        activeSearchQuery = null;
+        activeSearchText = null;
+        switchQuery(repository.observeShoppingList(category, sortOrder), this::onListLoaded);
+    }
 
-        ingredients.postValue(ingredientList);  // Notify observers with the new list
+    /**
+     * Changes the order of the list and reloads the current category or search in that order.
+     * The sorting is done by SQLite, never on the main thread.
+     *
+     * @param newSortOrder DatabaseHelper.SORT_BY_NAME or SORT_BY_QUANTITY.
+     */
+    public void setSortOrder(int newSortOrder) {
+        if (newSortOrder == sortOrder) {
+            return;
+        }
+        sortOrder = newSortOrder;
+        if (activeSearchText != null) {
+            clearSearchResults();  // Earlier results are in the old order
+            searchIngredients(activeSearchText);
+        } else {
+            loadShoppingList(activeCategory);
+        }
     }
 
     /**
-     * Adds or updates an ingredient in the database and refreshes the shopping list.
+     * Returns the order the list is shown in.
+     *
+     * @return DatabaseHelper.SORT_BY_NAME or SORT_BY_QUANTITY.
+     */
+    public int getSortOrder() {
+        return sortOrder;
+    }
+
+    /**
+     * Adds to an ingredient's quantity, or adds the ingredient, straight away in the list,
+     * then saves it with a single upsert in the background.
      *
      * @param newIngredient The ingredient to be added or updated.
      */
     public void addOrUpdateIngredient(Ingredient newIngredient) {
         if (isIngredientValid(newIngredient)) {
-            db.addOrUpdateIngredient(
-                    newIngredient.getName(),
-                    newIngredient.getCategory(),
-                    newIngredient.getQuantity()
-            );
-            loadShoppingList("All");  // Refresh the list
+            String name = newIngredient.getName();
+            String category = newIngredient.getCategory();
+            Ingredient current = findShown(name, category);
+            Ingredient result = current != null
+                    ? withQuantity(current, current.getQuantity() + newIngredient.getQuantity())
+                    : new Ingredient(0, name, category, newIngredient.getQuantity());  // ID 0 until saved
+            applyEdit(new PendingEdit(name, category, result),
+                    onResult -> repository.addOrUpdateIngredient(name, category, newIngredient.getQuantity(), onResult));
         } else {
             Log.w(TAG, "Invalid ingredient: " + newIngredient);
         }
     }
 
     /**
-     * Deletes an ingredient from the database and refreshes the shopping list.
+     * Removes an ingredient from the list straight away and deletes it in the background.
      *
      * @param ingredient The ingredient to delete.
+     * @return The token an undo prompt uses to undo exactly this deletion.
      */
-    public void deleteIngredient(Ingredient ingredient) {
-        db.deleteIngredientByNameAndCategory(ingredient.getName(), ingredient.getCategory());
-        loadShoppingList("All");  // Refresh the list after deletion
+    public WriteBehindQueue.UndoToken deleteIngredient(Ingredient ingredient) {
+        String name = ingredient.getName();
+        String category = ingredient.getCategory();
+        return applyEdit(new PendingEdit(name, category, null),
+                onResult -> repository.deleteIngredient(name, category, onResult));
     }
 
     /**
-     * Searches for ingredients by name and updates the shopping list with the results.
+     * Schedules a search for the latest query text. Keystrokes within the debounce
+     * window are coalesced into one search.
+     *
+     * @param query The current search text.
+     */
+    public void onSearchQueryChanged(String query) {
+        cancelPendingSearch();
+        pendingSearch = () -> {
+            pendingSearch = null;
+            searchIngredients(query);
+        };
+        searchHandler.postDelayed(pendingSearch, SEARCH_DEBOUNCE_MS);
+    }
+
+    /**
+     * Searches for ingredients by name immediately and updates the shopping list with the results.
+     * When the query only extends the previous one, the previous results are filtered
+     * in memory and the database is only queried again once ingredients change.
      *
      * @param query The search query to filter ingredients by name.
      */
     public void searchIngredients(String query) {
-        List<Ingredient> searchResults = db.getIngredientsByName(query);
-        ingredients.postValue(searchResults);  // Notify observers with search results
+        cancelPendingSearch();
+
+        String normalizedQuery = normalizeQuery(query);
+        List<Ingredient> knownResults = null;
+        if (lastSearchQuery != null && normalizedQuery.startsWith(lastSearchQuery)) {
+            knownResults = filterByQuery(lastSearchResults, normalizedQuery);
+        }
+
+        activeSearchQuery = normalizedQuery;
+        activeSearchText = query;
+        switchQuery(repository.observeSearch(query, sortOrder, knownResults), results -> {
+            lastSearchQuery = normalizedQuery;
+            lastSearchResults = results;
+            onListLoaded(results);
+        });
     }
 
     /**
-     * Restores the original quantity of an ingredient, re-adding it if necessary.
+     * Undoes the most recent saved shopping-list change, writing any queued changes first
+     * so they are undone in order. The list refreshes once the database has changed.
      *
-     * @param ingredient       The ingredient to restore.
-     * @param originalQuantity The original quantity to restore.
+     * @param onComplete Told whether there was a change to undo.
      */
-    public void restoreOriginalQuantity(Ingredient ingredient, int originalQuantity) {
-        Ingredient existingIngredient = db.getIngredientByNameAndCategory(
-                ingredient.getName(), ingredient.getCategory());
+    public void undo(MealRepository.Callback<Boolean> onComplete) {
+        repository.undoIngredientChange(onComplete);
+    }
 
-        if (existingIngredient != null) {
-            db.updateIngredientQuantity(existingIngredient.getId(), originalQuantity);
-            Log.i(TAG, "Restored original quantity. New quantity: " + originalQuantity);
-        } else {
-            db.addIngredient(db.getWritableDatabase(), 0, ingredient.getName(),
-                    originalQuantity, ingredient.getCategory());
-            Log.i(TAG, "Re-added ingredient with original quantity: " + originalQuantity);
-        }
+    /**
+     * Undoes the change a token names, even if other items were changed since.
+     *
+     * @param token      The token returned when the change was made.
+     * @param onComplete Told whether the change was undone.
+     */
+    public void undo(WriteBehindQueue.UndoToken token, MealRepository.Callback<Boolean> onComplete) {
+        repository.undoIngredientChange(token, onComplete);
+    }
 
-        loadShoppingList("All");  // Refresh the list after restoration
+    /**
+     * Exports the shopping list as a CSV file that can be shared.
+     *
+     * @param onComplete Receives the file's content URI, or null on failure.
+     */
+    public void exportShoppingList(MealRepository.Callback<Uri> onComplete) {
+        repository.exportShoppingList(MealExporter.FORMAT_CSV, onComplete);
     }
 
     /**
-     * Reduces the quantity of an ingredient and refreshes the list.
-     * If the quantity reaches 0, the ingredient is deleted.
+     * Redoes the most recently undone shopping-list change.
+     *
+     * @param onComplete Told whether there was a change to redo.
+     */
+    public void redo(MealRepository.Callback<Boolean> onComplete) {
+        repository.redoIngredientChange(onComplete);
+    }
+
+    /**
+     * Reduces the quantity of an ingredient straight away in the list and saves it in the background.
+     * Rows whose quantity reaches 0 are deleted.
      *
      * @param ingredient       The ingredient to reduce quantity for.
      * @param quantityToRemove The quantity to remove.
+     * @return The token an undo prompt uses to undo exactly this change.
      */
-    public void reduceIngredientQuantity(Ingredient ingredient, int quantityToRemove) {
+    public WriteBehindQueue.UndoToken reduceIngredientQuantity(Ingredient ingredient, int quantityToRemove) {
         int oldQuantity = ingredient.getQuantity();
         int newQuantity = oldQuantity - quantityToRemove;
 
-        Log.i(TAG, "Reducing quantity for Ingredient ID: " + ingredient.getId()
+        Log.i(TAG, "Reducing quantity for " + ingredient.getName()
                 + " from: " + oldQuantity + " to: " + newQuantity);
 
         if (newQuantity > 0) {
-            boolean updated = db.updateIngredientQuantity(ingredient.getId(), newQuantity);
+            String name = ingredient.getName();
+            String category = ingredient.getCategory();
+            return applyEdit(new PendingEdit(name, category, withQuantity(ingredient, newQuantity)),
+                    onResult -> repository.removeIngredientQuantity(name, category, quantityToRemove, onResult));
+        }
+        return deleteIngredient(ingredient);  // Delete ingredient if quantity is zero
+    }
+
+    /**
+     * Writes any queued shopping-list changes now, for when the screen is no longer visible.
+     */
+    public void flushPendingWrites() {
+        repository.flushPendingWrites();
+    }
+
+    // --- Optimistic Updates ---
+
+    /**
+     * Starts a write whose outcome is reported on the main thread.
+     */
+    private interface Write {
+        WriteBehindQueue.UndoToken start(MealRepository.Callback<Boolean> onResult);
+    }
 
-            if (!updated) {
-                Log.e(TAG, "Failed to update quantity for ID: " + ingredient.getId());
+    /**
+     * Shows an edit straight away and starts its write. The edit is kept over newer
+     * database results until the write finishes, and rolled back if the write fails.
+     *
+     * @param edit  The edit to apply.
+     * @param write The write that persists the edit.
+     * @return The write's undo token.
+     */
+    private WriteBehindQueue.UndoToken applyEdit(PendingEdit edit, Write write) {
+        pendingEdits.add(edit);
+        List<Ingredient> updated = new ArrayList<>(shownList);
+        if (applyEditTo(updated, shownPositions, edit)) {
+            publish(updated);
+        }
+        return write.start(succeeded -> {
+            pendingEdits.remove(edit);
+            if (!Boolean.TRUE.equals(succeeded)) {
+                Log.w(TAG, "Rolling back failed edit of " + edit.name);
+                rebuildShownList();
             }
+        });
+    }
+
+    /**
+     * Applies an edit to a list in place, keeping the position index in step.
+     * Updating a shown item only replaces it; removals and insertions re-index the list.
+     *
+     * @return True if the list changed.
+     */
+    private boolean applyEditTo(List<Ingredient> list, Map<String, Integer> positions, PendingEdit edit) {
+        Integer position = positions.get(edit.key);
+        if (position != null && edit.result != null) {
+            list.set(position, edit.result);
+            return true;
+        }
+        if (position != null) {
+            list.remove((int) position);
+        } else if (edit.result != null && isShownInCurrentView(edit.result)) {
+            int insertAt = Collections.binarySearch(list, edit.result, getListOrder());
+            list.add(insertAt < 0 ? -(insertAt + 1) : insertAt, edit.result);
         } else {
-            deleteIngredient(ingredient);  // Delete ingredient if quantity is zero
+            return false;
         }
+        indexPositions(list, positions);
+        return true;
+    }
 
-        loadShoppingList("All");  // Refresh the list after reduction
+    /**
+     * Receives a list read from the database and shows it with the pending edits applied.
+     */
+    private void onListLoaded(List<Ingredient> results) {
+        confirmedList = results;
+        rebuildShownList();
+    }
+
+    /**
+     * Rebuilds the shown list from the latest database results and the pending edits.
+     */
+    private void rebuildShownList() {
+        List<Ingredient> rebuilt = new ArrayList<>(confirmedList);
+        indexPositions(rebuilt, shownPositions);
+        for (PendingEdit edit : pendingEdits) {
+            applyEditTo(rebuilt, shownPositions, edit);
+        }
+        publish(rebuilt);
+    }
+
+    /**
+     * Makes a list the shown one. Its position index must already be current.
+     */
+    private void publish(List<Ingredient> list) {
+        shownList = list;
+        ingredients.setValue(list);
+    }
+
+    /**
+     * Returns the order SQLite sorts the list in, used only to place a single added item.
+     */
+    private Comparator<Ingredient> getListOrder() {
+        boolean byQuantity = sortOrder == DatabaseHelper.SORT_BY_QUANTITY;
+        return (a, b) -> {
+            int byCategory = String.valueOf(a.getCategory()).compareTo(String.valueOf(b.getCategory()));
+            if (byCategory != 0) {
+                return byCategory;
+            }
+            if (byQuantity && a.getQuantity() != b.getQuantity()) {
+                return Integer.compare(b.getQuantity(), a.getQuantity());
+            }
+            return a.getName().compareTo(b.getName());
+        };
+    }
+
+    /**
+     * Returns the shown item with a name and category, or null if it is not shown.
+     */
+    private Ingredient findShown(String name, String category) {
+        Integer position = shownPositions.get(itemKey(name, category));
+        return position != null ? shownList.get(position) : null;
+    }
+
+    /**
+     * Returns whether an item belongs in the category or search currently shown.
+     */
+    private boolean isShownInCurrentView(Ingredient ingredient) {
+        if (activeSearchQuery != null) {
+            return !filterByQuery(Collections.singletonList(ingredient), activeSearchQuery).isEmpty();
+        }
+        return activeCategory.equalsIgnoreCase("All") || activeCategory.equals(ingredient.getCategory());
+    }
+
+    /**
+     * Maps each item's key to its position in a list.
+     */
+    private static void indexPositions(List<Ingredient> list, Map<String, Integer> positions) {
+        positions.clear();
+        for (int i = 0; i < list.size(); i++) {
+            Ingredient ingredient = list.get(i);
+            positions.put(itemKey(ingredient.getName(), ingredient.getCategory()), i);
+        }
+    }
+
+    /**
+     * Returns the key identifying a shopping-list item.
+     */
+    private static String itemKey(String name, String category) {
+        return name + '\u0000' + category;
+    }
+
+    /**
+     * Returns a copy of an item with another quantity, leaving the shown item untouched for diffing.
+     */
+    private static Ingredient withQuantity(Ingredient ingredient, int quantity) {
+        return new Ingredient(ingredient.getId(), ingredient.getName(), ingredient.getCategory(), quantity);
+    }
+
+    // --- Query Wiring ---
+
+    /**
+     * Makes a query the one feeding the shopping list, detaching the previous one.
+     * The query only runs while the list itself is observed.
+     *
+     * @param query    The query to show.
+     * @param onResult Receives each result of the query.
+     */
+    private void switchQuery(LiveData<List<Ingredient>> query, Observer<List<Ingredient>> onResult) {
+        detachActiveQuery();
+        activeQuery = query;
+        ingredients.addSource(query, onResult);
+    }
+
+    /**
+     * Detaches the query feeding the shopping list, if any.
+     */
+    private void detachActiveQuery() {
+        if (activeQuery != null) {
+            ingredients.removeSource(activeQuery);
+            activeQuery = null;
+        }
+    }
+
+    /**
+     * Cancels the debounced search that has not run yet, if any.
+     */
+    private void cancelPendingSearch() {
+        if (pendingSearch != null) {
+            searchHandler.removeCallbacks(pendingSearch);
+            pendingSearch = null;
+        }
+    }
+
+    /**
+     * Forgets the previous search results so the next search goes to the database.
+     */
+    private void clearSearchResults() {
+        lastSearchQuery = null;
+        lastSearchResults = null;
+    }
+
+    /**
+     * Lower-cases a query and reduces it to its words separated by single spaces,
+     * matching how the full-text search splits it.
+     */
+    private static String normalizeQuery(String query) {
+        StringBuilder normalized = new StringBuilder();
+        if (query == null) {
+            return "";
+        }
+        for (String token : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                if (normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(token);
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Keeps the ingredients whose names contain a word starting with each query word,
+     * the same rule the full-text search applies.
+     */
+    private static List<Ingredient> filterByQuery(List<Ingredient> source, String normalizedQuery) {
+        if (normalizedQuery.isEmpty()) {
+            return source;
+        }
+        String[] queryTokens = normalizedQuery.split(" ");
+        List<Ingredient> matches = new ArrayList<>();
+        for (Ingredient ingredient : source) {
+            String[] nameTokens = normalizeQuery(ingredient.getName()).split(" ");
+            boolean matchesAll = true;
+            for (String queryToken : queryTokens) {
+                boolean matchesToken = false;
+                for (String nameToken : nameTokens) {
+                    if (nameToken.startsWith(queryToken)) {
+                        matchesToken = true;
+                        break;
+                    }
+                }
+                if (!matchesToken) {
+                    matchesAll = false;
+                    break;
+                }
+            }
+            if (matchesAll) {
+                matches.add(ingredient);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the shared database when the ViewModel is destroyed.
+     */
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        cancelPendingSearch();
+        detachActiveQuery();
+        DatabaseHelper.release();
     }
 
     /**
@@ -2,40 +2,52 @@ package com.example.a19037138_a3;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.text.Html;
-import android.text.Spanned;
-import android.util.Log;
-import android.view.LayoutInflater;
-import android.view.View;
 import android.widget.ImageButton;
-import android.widget.ImageView;
-import android.widget.LinearLayout;
-import android.widget.TextView;
+import android.widget.Toast;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.LiveData;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 /**
- * Activity to display the weekly view of meals.
- * Loads meals for each day and displays them in their respective slots.
+ * Activity to display the meal plan as an endlessly scrolling calendar starting today.
+ * Meals are loaded in pages of days keyed on the meal date; the next page is prefetched
+ * ahead of the scroll position and pages far off-screen are evicted, so only a bounded
+ * window of days is ever held in memory. Each page observes its own date range, so a
+ * change to a meal only reloads the page it falls on.
  */
 public class WeekViewActivity extends AppCompatActivity {
 
-    private static final String TAG = "WeekViewActivity"; // Log tag for debugging
+    private static final String[] MEAL_TYPES = {"Breakfast", "Lunch", "Dinner"};
+    private static final int PAGE_DAYS = 7; // Days per page of meals
+    private static final int ROWS_PER_PAGE = PAGE_DAYS * (MEAL_TYPES.length + 1); // Headers plus slots
+    private static final int MAX_LOADED_PAGES = 5; // Pages kept before the farthest one is evicted
 
-    private LinearLayout weekViewContainer; // Layout container for the weekly view
-    private DatabaseHelper db; // Singleton instance of the database helper
+    private RecyclerView weekViewContainer; // Recycled list of day headers and meal slots
+    private WeekViewAdapter adapter; // Adapter that diffs the rows of the week
+    private MealRepository repository; // Runs database work off the main thread
+    private int pendingPage = NO_PAGE; // Page whose first load is still in flight, if any
 
-    // Cache to store meals by date and type for quick access
+    private static final int NO_PAGE = -1;
+
+    // Meals of the loaded pages by date and type; repeated reads are served by the RecordCache
     private final Map<String, Map<String, List<Meal>>> mealsCache = new HashMap<>();
+    private final Map<Integer, LiveData<Map<String, Map<String, List<Meal>>>>> pageQueries = new HashMap<>();
+    private int firstLoadedPage = 0;  // Page 0 starts today
+    private int lastLoadedPage = -1;  // Below firstLoadedPage while nothing is loaded
 
     /**
-     * Initializes the activity, sets up the UI, and loads weekly meals.
+     * Initializes the activity, sets up the UI and starts observing the first page.
      *
      * @param savedInstanceState The saved instance state (if any).
      */
@@ -44,19 +56,11 @@ public class WeekViewActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_week_view);
 
-        db = DatabaseHelper.getInstance(this); // Initialize the database helper
+        DatabaseHelper.acquire(this); // Borrow the shared database helper
+        repository = MealRepository.getInstance(this);
 
         initializeUI(); // Set up the UI components
-        loadWeeklyMeals(); // Load the weekly meals on activity start
-    }
-
-    /**
-     * Reloads the meals when the activity resumes.
-     */
-    @Override
-    protected void onResume() {
-        super.onResume();
-        loadWeeklyMeals(); // Reload meals when returning to the activity
+        loadPage(0);
     }
 
     /**
@@ -73,137 +77,200 @@ public class WeekViewActivity extends AppCompatActivity {
      */
     private void initializeUI() {
         weekViewContainer = findViewById(R.id.weekMealContainer);
+        adapter = new WeekViewAdapter(this::showDeleteDialog);
+        weekViewContainer.setLayoutManager(new LinearLayoutManager(this));
+        weekViewContainer.setAdapter(adapter);
+
+        // Every slot row shares one pool, so a page's worth of slots is kept for reuse
+        RecyclerView.RecycledViewPool viewPool = weekViewContainer.getRecycledViewPool();
+        viewPool.setMaxRecycledViews(WeekViewAdapter.VIEW_TYPE_SLOT, PAGE_DAYS * MEAL_TYPES.length);
+        viewPool.setMaxRecycledViews(WeekViewAdapter.VIEW_TYPE_DAY, PAGE_DAYS);
+
+        // Load neighbouring pages as the user scrolls towards either end of the window
+        weekViewContainer.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                prefetchAroundVisibleRows();
+            }
+        });
 
         ImageButton backButton = findViewById(R.id.back_button);
         backButton.setOnClickListener(v -> goBackToMain()); // Set back button listener
     }
 
     /**
-     * Loads meals for the next 7 days and displays them in the week view.
+     * Starts observing one page of days next to the loaded window.
+     * The page's query re-runs by itself whenever a meal in its date range changes.
+     *
+     * @param page The page to load; page 0 starts today.
      */
-    private void loadWeeklyMeals() {
-        weekViewContainer.removeAllViews(); // Clear previous views
-
-        Calendar calendar = Calendar.getInstance(); // Start with today's date
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-        SimpleDateFormat displayDateFormat = new SimpleDateFormat("EEEE, d MMMM", Locale.getDefault());
-
-        // Loop through the next 7 days to display meals
-        for (int i = 0; i < 7; i++) {
-            String dbFormattedDate = dbDateFormat.format(calendar.getTime());
-            String displayFormattedDate = displayDateFormat.format(calendar.getTime());
+    private void loadPage(int page) {
+        if (pendingPage != NO_PAGE || page < 0 || pageQueries.containsKey(page)) {
+            return; // Retried on the next scroll once the current load finishes
+        }
 
-            Log.d(TAG, "Loading meals for date: " + dbFormattedDate);
+        pendingPage = page;
+        LiveData<Map<String, Map<String, List<Meal>>>> query =
+                repository.observeMealsInRange(getPageStartDate(page), getPageEndDate(page));
+        pageQueries.put(page, query);
+        query.observe(this, meals -> onPageLoaded(page, meals));
+    }
 
-            View dateContainer = LayoutInflater.from(this)
-                    .inflate(R.layout.date_container, weekViewContainer, false);
+    /**
+     * Stores the meals of a page and, on its first load, adds it to the window,
+     * evicting the page farthest away if the window would grow beyond MAX_LOADED_PAGES.
+     *
+     * @param page  The page that was loaded.
+     * @param meals The meals of the page, grouped by date and meal type.
+     */
+    private void onPageLoaded(int page, Map<String, Map<String, List<Meal>>> meals) {
+        removeCachedDays(page); // Drop meals that are no longer on the page
+        mealsCache.putAll(meals);
+
+        if (page == pendingPage) {
+            pendingPage = NO_PAGE;
+            if (lastLoadedPage < firstLoadedPage) {
+                firstLoadedPage = page;
+                lastLoadedPage = page;
+            } else if (page > lastLoadedPage) {
+                lastLoadedPage = page;
+                if (lastLoadedPage - firstLoadedPage >= MAX_LOADED_PAGES) {
+                    evictPage(firstLoadedPage++);
+                }
+            } else if (page < firstLoadedPage) {
+                firstLoadedPage = page;
+                if (lastLoadedPage - firstLoadedPage >= MAX_LOADED_PAGES) {
+                    evictPage(lastLoadedPage--);
+                }
+            }
+        }
+        showLoadedPages();
+    }
 
-            TextView mealDateView = dateContainer.findViewById(R.id.mealDate);
-            LinearLayout mealsForTheDayContainer = dateContainer.findViewById(R.id.mealsForTheDayContainer);
+    /**
+     * Loads the next page when the last visible row is within a page of the end,
+     * and the previous page when the first visible row is within a page of the start.
+     */
+    private void prefetchAroundVisibleRows() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) weekViewContainer.getLayoutManager();
+        if (layoutManager == null || lastLoadedPage < firstLoadedPage) {
+            return;
+        }
 
-            mealDateView.setText(getUnderlinedText(displayFormattedDate));
+        if (layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - ROWS_PER_PAGE) {
+            loadPage(lastLoadedPage + 1);
+        } else if (firstLoadedPage > 0 && layoutManager.findFirstVisibleItemPosition() < ROWS_PER_PAGE) {
+            loadPage(firstLoadedPage - 1);
+        }
+    }
 
-            // Display meals for each meal type slot
-            displayMealsForSlot(dbFormattedDate, "Breakfast", mealsForTheDayContainer);
-            displayMealsForSlot(dbFormattedDate, "Lunch", mealsForTheDayContainer);
-            displayMealsForSlot(dbFormattedDate, "Dinner", mealsForTheDayContainer);
+    /**
+     * Submits the rows of the loaded pages and checks whether a neighbouring page is needed yet.
+     */
+    private void showLoadedPages() {
+        adapter.submitRows(buildRows(firstLoadedPage, lastLoadedPage));
+        weekViewContainer.post(this::prefetchAroundVisibleRows);
+    }
 
-            weekViewContainer.addView(dateContainer); // Add the day's view to the container
-            calendar.add(Calendar.DAY_OF_YEAR, 1); // Move to the next day
+    /**
+     * Stops observing a page that has scrolled far off-screen and drops its cached meals.
+     *
+     * @param page The page to evict.
+     */
+    private void evictPage(int page) {
+        LiveData<Map<String, Map<String, List<Meal>>>> query = pageQueries.remove(page);
+        if (query != null) {
+            query.removeObservers(this);
         }
+        removeCachedDays(page);
     }
 
     /**
-     * Returns underlined text using HTML formatting.
+     * Removes the cached meals of every day on a page.
      *
-     * @param text The text to underline.
-     * @return A Spanned object with underlined text.
+     * @param page The page to clear.
      */
-    private Spanned getUnderlinedText(String text) {
-        return Html.fromHtml("<u>" + text + "</u>", Html.FROM_HTML_MODE_LEGACY);
+    private void removeCachedDays(int page) {
+        Calendar calendar = getPageStart(page);
+        SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+        for (int i = 0; i < PAGE_DAYS; i++) {
+            mealsCache.remove(dbDateFormat.format(calendar.getTime()));
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+        }
     }
 
     /**
-     * Displays meals for a specific meal slot (e.g., Breakfast) in the parent layout.
+     * Builds the rows for a range of pages: a header per day followed by its meal slots.
      *
-     * @param date   The date of the meals.
-     * @param mealType The type of the meal (Breakfast, Lunch, Dinner).
-     * @param parent  The parent layout to add the meal views to.
+     * @param firstPage The first page to include.
+     * @param lastPage  The last page to include.
+     * @return The rows of the pages, in display order.
      */
-    private void displayMealsForSlot(String date, String mealType, LinearLayout parent) {
-        List<Meal> meals = getCachedMeals(date, mealType);
-
-        View mealItemView = LayoutInflater.from(this)
-                .inflate(R.layout.meal_item_layout, parent, false);
-
-        TextView mealNameView = mealItemView.findViewById(R.id.mealName);
-        ImageView mealIcon = mealItemView.findViewById(R.id.mealIcon);
+    private List<WeekViewAdapter.WeekRow> buildRows(int firstPage, int lastPage) {
+        int days = (lastPage - firstPage + 1) * PAGE_DAYS;
+        List<WeekViewAdapter.WeekRow> rows = new ArrayList<>(days * (MEAL_TYPES.length + 1));
+        Calendar calendar = getPageStart(firstPage);
+        SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+        SimpleDateFormat displayDateFormat = new SimpleDateFormat("EEEE, d MMMM", Locale.getDefault());
 
-        setMealIcon(mealType, mealIcon); // Set the appropriate icon for the meal type
+        for (int i = 0; i < days; i++) {
+            String dbFormattedDate = dbDateFormat.format(calendar.getTime());
 
-        if (!meals.isEmpty()) {
-            StringBuilder mealNamesBuilder = new StringBuilder();
-            for (Meal meal : meals) {
-                mealNamesBuilder.append(meal.getName()).append("\n");
+            rows.add(WeekViewAdapter.WeekRow.day(dbFormattedDate, displayDateFormat.format(calendar.getTime())));
+            for (String mealType : MEAL_TYPES) {
+                rows.add(WeekViewAdapter.WeekRow.slot(dbFormattedDate, mealType,
+                        getCachedMeals(dbFormattedDate, mealType)));
             }
-            mealNameView.setText(mealNamesBuilder.toString().trim());
-
-            // Set a click listener to show the delete dialog for the first meal
-            mealItemView.setOnClickListener(v -> showDeleteDialog(meals.get(0)));
-        } else {
-            // Display a message if no meals are available for the slot
-            mealNameView.setText(getString(R.string.no_meal, mealType.toLowerCase()));
+            calendar.add(Calendar.DAY_OF_YEAR, 1); // Move to the next day
         }
-
-        parent.addView(mealItemView); // Add the meal view to the parent layout
+        return rows;
     }
 
     /**
-     * Retrieves cached meals for a specific date and meal type.
-     * If not cached, it fetches from the database.
+     * Returns the first day of a page.
      *
-     * @param date     The date of the meals.
-     * @param mealType The type of the meal (Breakfast, Lunch, Dinner).
-     * @return A list of meals for the specified date and type.
+     * @param page The page; page 0 starts today.
+     * @return A calendar set to the page's first day.
      */
-    private List<Meal> getCachedMeals(String date, String mealType) {
-        Map<String, List<Meal>> mealsForDate = mealsCache.get(date);
-
-        if (mealsForDate != null && mealsForDate.containsKey(mealType)) {
-            return mealsForDate.get(mealType);
-        }
+    private Calendar getPageStart(int page) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_YEAR, page * PAGE_DAYS);
+        return calendar;
+    }
 
-        List<Meal> meals = db.getMealsByDateAndType(date, mealType);
+    /**
+     * Returns the database date of a page's first day.
+     */
+    private String getPageStartDate(int page) {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(getPageStart(page).getTime());
+    }
 
-        if (mealsForDate == null) {
-            mealsForDate = new HashMap<>();
-            mealsCache.put(date, mealsForDate);
-        }
-        mealsForDate.put(mealType, meals);
-        return meals;
+    /**
+     * Returns the database date of a page's last day.
+     */
+    private String getPageEndDate(int page) {
+        Calendar calendar = getPageStart(page);
+        calendar.add(Calendar.DAY_OF_YEAR, PAGE_DAYS - 1);
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).format(calendar.getTime());
     }
 
     /**
-     * Sets the appropriate icon for a meal type.
+     * Retrieves cached meals for a specific date and meal type.
+     * The cache holds the loaded pages, filled as each page's query delivers.
      *
+     * @param date     The date of the meals.
      * @param mealType The type of the meal (Breakfast, Lunch, Dinner).
-     * @param mealIcon The ImageView to set the icon on.
-     */
-    private void setMealIcon(String mealType, ImageView mealIcon) {
-        switch (mealType) {
-            case "Breakfast":
-                mealIcon.setImageResource(R.drawable.ic_breakfast_icon);
-                break;
-            case "Lunch":
-                mealIcon.setImageResource(R.drawable.ic_lunch_icon);
-                break;
-            case "Dinner":
-                mealIcon.setImageResource(R.drawable.ic_dinner_icon);
-                break;
-            default:
-                mealIcon.setImageResource(android.R.drawable.ic_menu_help);
-                break;
+     * @return A list of meals for the specified date and type, or an empty list if there are none.
+     */
+    private List<Meal> getCachedMeals(String date, String mealType) {
+        Map<String, List<Meal>> mealsForDate = mealsCache.get(date);
+        if (mealsForDate != null) {
+            List<Meal> meals = mealsForDate.get(mealType);
+            if (meals != null) {
+                return meals;
+            }
         }
+        return Collections.emptyList();
     }
 
     /**
@@ -212,18 +279,76 @@ public class WeekViewActivity extends AppCompatActivity {
      * @param meal The meal to delete.
      */
     private void showDeleteDialog(Meal meal) {
+        if (meal.isRecurring()) {
+            showOccurrenceDialog(meal);
+            return;
+        }
         new AlertDialog.Builder(this)
                 .setTitle(R.string.delete_meal_title)
                 .setMessage(getString(R.string.delete_meal_message, meal.getName()))
-                .setPositiveButton(R.string.delete, (dialog, which) -> {
-                    db.deleteMeal(meal.getId());
-                    mealsCache.clear(); // Clear the cache after deletion
-                    loadWeeklyMeals(); // Reload the meals
+                .setPositiveButton(R.string.delete, (dialog, which) ->
+                        repository.deleteMeal(meal.getId(), null)) // The page observing its date reloads
+                .setNeutralButton(R.string.save_as_recipe, (dialog, which) -> saveAsRecipe(meal))
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Offers to skip or change one occurrence of a recurring meal, or to stop it repeating.
+     *
+     * @param meal The occurrence that was tapped.
+     */
+    private void showOccurrenceDialog(Meal meal) {
+        CharSequence[] actions = {
+                getString(R.string.skip_this_day),
+                getString(R.string.change_this_day),
+                getString(R.string.stop_repeating)
+        };
+        new AlertDialog.Builder(this)
+                .setTitle(meal.getName())
+                .setItems(actions, (dialog, which) -> {
+                    if (which == 0) {
+                        repository.skipOccurrence(meal.getRecurrenceId(), meal.getDate(), null);
+                    } else if (which == 1) {
+                        overrideOccurrence(meal);
+                    } else {
+                        repository.deleteRecurringMeal(meal.getRecurrenceId(), null);
+                    }
                 })
                 .setNegativeButton(R.string.cancel, null)
                 .show();
     }
 
+    /**
+     * Replaces an occurrence with a stored meal, which can then be deleted or saved like any other.
+     *
+     * @param meal The occurrence to replace.
+     */
+    private void overrideOccurrence(Meal meal) {
+        repository.overrideOccurrence(meal.getRecurrenceId(), meal.getDate(), mealId -> {
+            if (isDestroyed()) {
+                return;
+            }
+            Toast.makeText(this, mealId != -1 ? R.string.occurrence_overridden
+                    : R.string.occurrence_override_failed, Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    /**
+     * Saves a meal and its ingredients as a recipe template that can be planned on other dates.
+     *
+     * @param meal The meal to save.
+     */
+    private void saveAsRecipe(Meal meal) {
+        repository.saveMealAsRecipe(meal.getId(), recipeId -> {
+            if (isDestroyed()) {
+                return;
+            }
+            Toast.makeText(this, recipeId != -1 ? getString(R.string.recipe_saved, meal.getName())
+                    : getString(R.string.recipe_save_failed), Toast.LENGTH_SHORT).show();
+        });
+    }
+
     /**
      * Navigates back to the MainActivity.
      */
@@ -234,12 +359,15 @@ public class WeekViewActivity extends AppCompatActivity {
     }
 
     /**
-     * Releases resources by clearing the cache and views.
+     * Releases resources by clearing the cache, detaching the adapter and returning the database.
+     * The page queries stop on their own as the activity is destroyed.
      */
     private void releaseResources() {
+        pageQueries.clear();
+        DatabaseHelper.release();
         mealsCache.clear();
         if (weekViewContainer != null) {
-            weekViewContainer.removeAllViews(); // Clear the layout
+            weekViewContainer.setAdapter(null); // Release the recycled views
         }
     }
 }
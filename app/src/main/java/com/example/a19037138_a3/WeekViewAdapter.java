@@ -0,0 +1,295 @@
+package com.example.a19037138_a3;
+
+import android.text.Html;
+import android.text.Spanned;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adapter for the week view. Shows a header row for each day followed by one row per meal slot.
+ * Rows are diffed off the main thread, so only the slots whose meals changed are rebound.
+ */
+public class WeekViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+    public static final int VIEW_TYPE_DAY = 0;  // Date header
+    public static final int VIEW_TYPE_SLOT = 1; // Breakfast, lunch or dinner for a date
+
+    /**
+     * Interface to handle clicks on a meal slot that has meals.
+     */
+    public interface OnMealClickListener {
+        void onMealClick(Meal meal);
+    }
+
+    /**
+     * One row of the week view: either a day header or a meal slot.
+     */
+    public static final class WeekRow {
+        final int viewType;
+        final String date;        // Database date (yyyy-MM-dd)
+        final String displayDate; // Only set for day headers
+        final String mealType;    // Only set for meal slots
+        final List<Meal> meals;   // Only set for meal slots
+
+        private WeekRow(int viewType, String date, String displayDate, String mealType, List<Meal> meals) {
+            this.viewType = viewType;
+            this.date = date;
+            this.displayDate = displayDate;
+            this.mealType = mealType;
+            this.meals = meals;
+        }
+
+        /**
+         * Creates a day header row.
+         *
+         * @param date        The database date of the day.
+         * @param displayDate The formatted date shown to the user.
+         * @return A header row.
+         */
+        public static WeekRow day(String date, String displayDate) {
+            return new WeekRow(VIEW_TYPE_DAY, date, displayDate, null, Collections.emptyList());
+        }
+
+        /**
+         * Creates a meal slot row.
+         *
+         * @param date     The database date of the slot.
+         * @param mealType The type of the meal (Breakfast, Lunch, Dinner).
+         * @param meals    The meals planned for the slot, possibly empty.
+         * @return A slot row.
+         */
+        public static WeekRow slot(String date, String mealType, List<Meal> meals) {
+            return new WeekRow(VIEW_TYPE_SLOT, date, null, mealType, meals);
+        }
+
+        /**
+         * Returns the database date of the row.
+         *
+         * @return The date of the row (yyyy-MM-dd).
+         */
+        public String getDate() {
+            return date;
+        }
+
+        /**
+         * Returns whether two rows stand for the same day header or the same slot.
+         */
+        boolean isSameRow(WeekRow other) {
+            return viewType == other.viewType && date.equals(other.date)
+                    && (mealType == null ? other.mealType == null : mealType.equals(other.mealType));
+        }
+
+        /**
+         * Returns whether two rows display the same content.
+         */
+        boolean hasSameContent(WeekRow other) {
+            if (viewType == VIEW_TYPE_DAY) {
+                return displayDate.equals(other.displayDate);
+            }
+            if (meals.size() != other.meals.size()) {
+                return false;
+            }
+            for (int i = 0; i < meals.size(); i++) {
+                Meal meal = meals.get(i);
+                Meal otherMeal = other.meals.get(i);
+                if (meal.getId() != otherMeal.getId() || !meal.getName().equals(otherMeal.getName())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<WeekRow> DIFF_CALLBACK = new DiffUtil.ItemCallback<WeekRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull WeekRow oldItem, @NonNull WeekRow newItem) {
+            return oldItem.isSameRow(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull WeekRow oldItem, @NonNull WeekRow newItem) {
+            return oldItem.hasSameContent(newItem);
+        }
+    };
+
+    private final AsyncListDiffer<WeekRow> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK); // Diffs on a background thread
+    private final OnMealClickListener mealClickListener; // Listener for slot clicks
+
+    /**
+     * Constructor to initialize the adapter with a meal click listener.
+     *
+     * @param mealClickListener Listener to handle clicks on planned meals.
+     */
+    public WeekViewAdapter(OnMealClickListener mealClickListener) {
+        this.mealClickListener = mealClickListener;
+    }
+
+    /**
+     * Submits the rows to display. Only rows that differ from the current ones are rebound.
+     *
+     * @param rows The day headers and meal slots, in display order.
+     */
+    public void submitRows(List<WeekRow> rows) {
+        differ.submitList(new ArrayList<>(rows));
+    }
+
+    /**
+     * Returns the row at a position.
+     *
+     * @param position The position of the row.
+     * @return The row at the given position.
+     */
+    public WeekRow getRowAt(int position) {
+        return differ.getCurrentList().get(position);
+    }
+
+    /**
+     * Returns the view type of the row at a position.
+     *
+     * @param position The position of the row.
+     * @return VIEW_TYPE_DAY or VIEW_TYPE_SLOT.
+     */
+    @Override
+    public int getItemViewType(int position) {
+        return differ.getCurrentList().get(position).viewType;
+    }
+
+    /**
+     * Inflates a day header or a meal slot.
+     *
+     * @param parent   The parent view group.
+     * @param viewType The view type of the new view.
+     * @return A new ViewHolder instance.
+     */
+    @NonNull
+    @Override
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        if (viewType == VIEW_TYPE_DAY) {
+            return new DayViewHolder(inflater.inflate(R.layout.date_container, parent, false));
+        }
+        return new SlotViewHolder(inflater.inflate(R.layout.meal_item_layout, parent, false));
+    }
+
+    /**
+     * Binds a day header or a meal slot.
+     *
+     * @param holder   The ViewHolder to bind data to.
+     * @param position The position of the row.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        WeekRow row = differ.getCurrentList().get(position);
+        if (holder instanceof DayViewHolder) {
+            ((DayViewHolder) holder).mealDate.setText(getUnderlinedText(row.displayDate));
+        } else {
+            bindSlot((SlotViewHolder) holder, row);
+        }
+    }
+
+    /**
+     * Returns the total number of rows.
+     *
+     * @return The number of rows.
+     */
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    /**
+     * Displays the meals for one slot, or a placeholder when there are none.
+     */
+    private void bindSlot(SlotViewHolder holder, WeekRow row) {
+        setMealIcon(row.mealType, holder.mealIcon); // Set the appropriate icon for the meal type
+
+        if (!row.meals.isEmpty()) {
+            StringBuilder mealNamesBuilder = new StringBuilder();
+            for (Meal meal : row.meals) {
+                mealNamesBuilder.append(meal.isRecurring()
+                        ? holder.itemView.getContext().getString(R.string.recurring_meal_name, meal.getName())
+                        : meal.getName()).append("\n");
+            }
+            holder.mealName.setText(mealNamesBuilder.toString().trim());
+
+            // Set a click listener to show the delete dialog for the first meal
+            Meal firstMeal = row.meals.get(0);
+            holder.itemView.setOnClickListener(v -> mealClickListener.onMealClick(firstMeal));
+        } else {
+            // Display a message if no meals are available for the slot
+            holder.mealName.setText(holder.itemView.getContext()
+                    .getString(R.string.no_meal, row.mealType.toLowerCase()));
+            holder.itemView.setOnClickListener(null);
+            holder.itemView.setClickable(false);
+        }
+    }
+
+    /**
+     * Returns underlined text using HTML formatting.
+     *
+     * @param text The text to underline.
+     * @return A Spanned object with underlined text.
+     */
+    private static Spanned getUnderlinedText(String text) {
+        return Html.fromHtml("<u>" + text + "</u>", Html.FROM_HTML_MODE_LEGACY);
+    }
+
+    /**
+     * Sets the appropriate icon for a meal type.
+     *
+     * @param mealType The type of the meal (Breakfast, Lunch, Dinner).
+     * @param mealIcon The ImageView to set the icon on.
+     */
+    private static void setMealIcon(String mealType, ImageView mealIcon) {
+        switch (mealType) {
+            case "Breakfast":
+                mealIcon.setImageResource(R.drawable.ic_breakfast_icon);
+                break;
+            case "Lunch":
+                mealIcon.setImageResource(R.drawable.ic_lunch_icon);
+                break;
+            case "Dinner":
+                mealIcon.setImageResource(R.drawable.ic_dinner_icon);
+                break;
+            default:
+                mealIcon.setImageResource(android.R.drawable.ic_menu_help);
+                break;
+        }
+    }
+
+    /**
+     * ViewHolder for a day header.
+     */
+    static class DayViewHolder extends RecyclerView.ViewHolder {
+        final TextView mealDate; // Displays the formatted date
+
+        DayViewHolder(View itemView) {
+            super(itemView);
+            mealDate = itemView.findViewById(R.id.mealDate);
+        }
+    }
+
+    /**
+     * ViewHolder for a meal slot.
+     */
+    static class SlotViewHolder extends RecyclerView.ViewHolder {
+        final TextView mealName; // Displays the meal names or a placeholder
+        final ImageView mealIcon; // Displays the meal type icon
+
+        SlotViewHolder(View itemView) {
+            super(itemView);
+            mealName = itemView.findViewById(R.id.mealName);
+            mealIcon = itemView.findViewById(R.id.mealIcon);
+        }
+    }
+}
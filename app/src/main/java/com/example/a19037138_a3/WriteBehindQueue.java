@@ -0,0 +1,255 @@
+package com.example.a19037138_a3;
+
+import android.database.SQLException;
+import android.os.Handler;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Write-behind queue for shopping-list quantity changes.
+ * Changes are held in memory and flushed together in one transaction a short while after
+ * the first one, or sooner when {@link #flush()} is called. Rapid taps therefore cost one
+ * commit instead of one each. Additions to an item (name and category) are merged and
+ * journaled as one operation. Removals and deletions are what undo prompts are shown for,
+ * so each is journaled as an operation of its own, and later changes start a new one.
+ * Every queued change returns an UndoToken naming its operation.
+ */
+public class WriteBehindQueue {
+
+    private static final String TAG = "WriteBehindQueue"; // Log tag for debugging
+    private static final long FLUSH_DELAY_MS = 1500; // Longest a change waits before it is written
+
+    static final int CHANGE_DELTA = 0;  // Add (positive) or remove (negative) a quantity
+    static final int CHANGE_DELETE = 1; // Delete every row of the item
+
+    /**
+     * One change to an item, in the order it was made.
+     */
+    static final class Change {
+        final int kind;
+        int quantity;
+
+        Change(int kind, int quantity) {
+            this.kind = kind;
+            this.quantity = quantity;
+        }
+    }
+
+    /**
+     * Names the journal operation a queued change is written as, so an undo prompt can undo
+     * exactly that change. Only merged additions to one item share an operation.
+     */
+    public static final class UndoToken {
+        private volatile long operationId = -1; // Set on the write thread once the item is written
+
+        /**
+         * Returns the journal operation ID, or -1 if the change is not written yet, failed or changed nothing.
+         */
+        public long getOperationId() {
+            return operationId;
+        }
+    }
+
+    /**
+     * The changes to one item that are written as one operation, and who to tell once they are.
+     */
+    private static final class PendingItem {
+        final String name;
+        final String category;
+        final UndoToken undoToken = new UndoToken();
+        final List<Change> changes = new ArrayList<>();
+        final List<MealRepository.Callback<Boolean>> callbacks = new ArrayList<>();
+
+        PendingItem(String name, String category) {
+            this.name = name;
+            this.category = category;
+        }
+    }
+
+    private final DatabaseHelper db;
+    private final Executor writeExecutor;
+    private final Handler mainHandler;
+    private final Runnable flushRunnable = this::flush;
+
+    // Operations waiting to be written, in the order they were started (guarded by this)
+    private List<PendingItem> pendingItems = new ArrayList<>();
+    // The operation per item that later additions merge into (guarded by this)
+    private final Map<String, PendingItem> openItems = new HashMap<>();
+    private boolean flushScheduled;
+
+    /**
+     * Creates a queue that writes through the given executor.
+     *
+     * @param db            The database to write to.
+     * @param writeExecutor The executor that runs writes in order.
+     * @param mainHandler   Handler for the flush timer and the callbacks.
+     */
+    public WriteBehindQueue(DatabaseHelper db, Executor writeExecutor, Handler mainHandler) {
+        this.db = db;
+        this.writeExecutor = writeExecutor;
+        this.mainHandler = mainHandler;
+    }
+
+    /**
+     * Queues a quantity to add to an item, creating it if needed.
+     * It is merged with other additions to the item made since its last removal or deletion.
+     *
+     * @return The token of the operation the change will be written as, shared with those additions.
+     */
+    public UndoToken add(String name, String category, int quantity, MealRepository.Callback<Boolean> onComplete) {
+        return enqueue(name, category, CHANGE_DELTA, quantity, false, onComplete);
+    }
+
+    /**
+     * Queues a quantity to remove from an item, as an operation of its own.
+     *
+     * @return The token of the operation that undoes exactly this removal.
+     */
+    public UndoToken remove(String name, String category, int quantity, MealRepository.Callback<Boolean> onComplete) {
+        return enqueue(name, category, CHANGE_DELTA, -quantity, true, onComplete);
+    }
+
+    /**
+     * Queues the deletion of every row of an item, as an operation of its own.
+     *
+     * @return The token of the operation that undoes exactly this deletion.
+     */
+    public UndoToken delete(String name, String category, MealRepository.Callback<Boolean> onComplete) {
+        return enqueue(name, category, CHANGE_DELETE, 0, true, onComplete);
+    }
+
+    /**
+     * Writes every queued change now, in one transaction on the write executor.
+     * Safe to call from any thread; does nothing if no changes are queued.
+     */
+    public void flush() {
+        List<PendingItem> items;
+        synchronized (this) {
+            mainHandler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            if (pendingItems.isEmpty()) {
+                return;
+            }
+            items = pendingItems;
+            pendingItems = new ArrayList<>();
+            openItems.clear();
+        }
+        writeExecutor.execute(() -> write(items));
+    }
+
+    /**
+     * Merges a change into the item's open operation, or starts a new one, and makes sure a flush is scheduled.
+     *
+     * @param ownOperation Whether the change is undone on its own; it then gets a new operation
+     *                     that nothing else merges into.
+     */
+    private synchronized UndoToken enqueue(String name, String category, int kind, int quantity,
+                                           boolean ownOperation, MealRepository.Callback<Boolean> onComplete) {
+        String key = name + '\u0000' + category;
+        PendingItem item = openItems.get(key);
+        if (item == null || ownOperation) {
+            item = new PendingItem(name, category);
+            pendingItems.add(item);
+            if (ownOperation) {
+                openItems.remove(key);  // Later changes must not join this operation
+            } else {
+                openItems.put(key, item);
+            }
+        }
+        merge(item.changes, kind, quantity);
+        if (onComplete != null) {
+            item.callbacks.add(onComplete);
+        }
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            mainHandler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+        return item.undoToken;
+    }
+
+    /**
+     * Appends a change to an item's changes, folding it into the last one where the result is the same.
+     * A delete replaces everything before it; successive deltas add up,
+     * except an add after a removal, since removals stop at zero.
+     * Package-private for the tests.
+     */
+    static void merge(List<Change> changes, int kind, int quantity) {
+        if (kind == CHANGE_DELETE) {
+            changes.clear();
+            changes.add(new Change(CHANGE_DELETE, 0));
+            return;
+        }
+
+        Change last = changes.isEmpty() ? null : changes.get(changes.size() - 1);
+        if (last != null && last.kind == kind && (last.quantity >= 0 || quantity <= 0)) {
+            last.quantity += quantity;
+            if (last.quantity == 0) {
+                changes.remove(changes.size() - 1);
+            }
+            return;
+        }
+        changes.add(new Change(kind, quantity));
+    }
+
+    /**
+     * Applies every pending operation in one transaction, in the order they were started,
+     * journaling each as one undoable operation, and reports the outcome on the main thread.
+     */
+    private void write(List<PendingItem> items) {
+        boolean succeeded;
+        try {
+            db.runInTransaction(() -> {
+                for (PendingItem item : items) {
+                    if (!item.changes.isEmpty()) {
+                        item.undoToken.operationId = db.runJournaled(item.name, item.category, () -> {
+                            for (Change change : item.changes) {
+                                apply(item, change);
+                            }
+                        });
+                    }
+                }
+            });
+            succeeded = true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to write " + items.size() + " queued operations", e);
+            for (PendingItem item : items) {
+                item.undoToken.operationId = -1; // Rolled back with the changes
+            }
+            succeeded = false;
+        }
+
+        boolean result = succeeded;
+        mainHandler.post(() -> {
+            for (PendingItem item : items) {
+                for (MealRepository.Callback<Boolean> callback : item.callbacks) {
+                    callback.onResult(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies one change to an item.
+     */
+    private void apply(PendingItem item, Change change) {
+        switch (change.kind) {
+            case CHANGE_DELTA:
+                if (change.quantity > 0) {
+                    db.addOrUpdateIngredient(item.name, item.category, change.quantity);
+                } else {
+                    db.removeIngredientQuantity(item.name, item.category, -change.quantity);
+                }
+                break;
+            case CHANGE_DELETE:
+                db.deleteIngredientByNameAndCategory(item.name, item.category);
+                break;
+            default:
+                break;
+        }
+    }
+}